@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/** Reachability bitmaps of a pack: for some of its commits, the set of
+ *  objects reachable from the commit, kept as one bit per object of the
+ *  pack in the order of its index. With them, the objects reachable from a
+ *  set of commits are found by walking only down to the nearest commits
+ *  that have bitmaps and or-ing those in, and the objects one repository
+ *  has that another lacks are an and-not of two such sets.
+ *
+ *  gc writes the bitmaps of its pack to a file next to it, ending in
+ *  .bitmap, for the head of every branch and for every commit on the
+ *  first-parent line of a branch whose generation is a multiple of
+ *  SPACING, so that a walk from anywhere reaches a bitmap soon. The file
+ *  holds a header (magic, version, number of bitmaps), then for each
+ *  commit its 20-byte UID and the offset of its bitmap, then the bitmaps.
+ *  A bitmap is compressed the way EWAH does it: its 64-bit words are
+ *  written as runs of words that are all zeros or all ones, each followed
+ *  by the words that are neither, since the bits of nearby objects tend
+ *  to be alike.
+ *
+ *  @author Sueray
+ */
+class Bitmaps {
+
+    /** Magic number opening a bitmap file ("GBMP"). */
+    private static final int MAGIC = 0x47424d50;
+    /** Format version of bitmap files. */
+    private static final int VERSION = 1;
+    /** Size in bytes of the header. */
+    private static final int HEADER_BYTES = 12;
+    /** Size in bytes of a commit UID. */
+    private static final int ID_BYTES = 20;
+    /** Generations between commits given bitmaps on a first-parent line. */
+    static final int SPACING = 64;
+
+    /** The contents of the bitmap file. */
+    private final ByteBuffer data;
+    /** The offset of the bitmap of each commit that has one. */
+    private final HashMap<String, Integer> offsets = new HashMap<>();
+
+    /** Read the bitmaps in FILE. */
+    Bitmaps(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt bitmap file %s.", file.getName());
+        }
+        int count = data.getInt(8);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            int entry = HEADER_BYTES + i * (ID_BYTES + 4);
+            data.get(entry, id);
+            offsets.put(Utils.toHex(id, 0, ID_BYTES), data.getInt(entry + ID_BYTES));
+        }
+    }
+
+    /** Return the objects reachable from the commit UID, by position in
+     *  the pack, or null if it has no bitmap. */
+    BitSet get(String uid) {
+        Integer offset = offsets.get(uid);
+        return offset == null ? null : decode(data, offset);
+    }
+
+    /** Return true iff some pack has bitmaps. */
+    static boolean available() {
+        for (Pack pack : Pack.all()) {
+            if (pack.bitmaps() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the marks of every object reachable from COMMITS, using the
+     *  bitmaps of the packs wherever the walk meets a commit that has one. */
+    static ObjectStore.Marks reachable(Collection<String> commits) {
+        ObjectStore.Marks marks = new ObjectStore.Marks();
+        List<Pack> packs = marks.packs();
+        walk(commits, marks, uid -> {
+            for (int p = 0; p < packs.size(); p += 1) {
+                Bitmaps bitmaps = packs.get(p).bitmaps();
+                BitSet bits = bitmaps == null ? null : bitmaps.get(uid);
+                if (bits != null) {
+                    marks.markAll(p, bits);
+                    return true;
+                }
+            }
+            return false;
+        });
+        return marks;
+    }
+
+    /** Write the bitmaps of PACK, which must be the only pack and hold
+     *  every object reachable from the branch heads TIPS. The commits are
+     *  done oldest generation first, so each walk stops at the bitmaps of
+     *  older commits done before it. */
+    static void write(Pack pack, Collection<String> tips) {
+        CommitGraph graph = CommitGraph.get();
+        TreeSet<String> chosen = new TreeSet<>(tips);
+        for (String tip : tips) {
+            for (String c = tip; c != null; c = Commit.load(c).getParentID()) {
+                if (graph.generation(c) % SPACING == 0) {
+                    chosen.add(c);
+                }
+            }
+        }
+        List<String> order = new ArrayList<>(chosen);
+        order.sort(Comparator.comparingInt(graph::generation));
+        HashMap<String, BitSet> built = new HashMap<>();
+        for (String uid : order) {
+            ObjectStore.Marks marks = new ObjectStore.Marks();
+            walk(List.of(uid), marks, c -> {
+                BitSet bits = built.get(c);
+                if (bits != null) {
+                    marks.markAll(0, bits);
+                }
+                return bits != null;
+            });
+            built.put(uid, marks.marked(0));
+        }
+
+        ByteArrayOutputStream bitmaps = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + chosen.size() * (ID_BYTES + 4));
+        header.putInt(MAGIC).putInt(VERSION).putInt(chosen.size());
+        for (String uid : chosen) {
+            header.put(Utils.fromHex(uid)).putInt(header.capacity() + bitmaps.size());
+            encode(built.get(uid), bitmaps);
+        }
+        Utils.writeAtomically(pack.bitmapFile(), header.array(), bitmaps.toByteArray());
+    }
+
+    /** Mark in MARKS every object reachable from COMMITS, walking down from
+     *  them but not below a commit for which COVERED, having marked what
+     *  it reaches, returns true. */
+    private static void walk(Collection<String> commits, ObjectStore.Marks marks,
+                             Predicate<String> covered) {
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        for (String uid : commits) {
+            if (marks.mark(uid)) {
+                queue.add(uid);
+            }
+        }
+        while (!queue.isEmpty()) {
+            String uid = queue.remove();
+            if (covered.test(uid)) {
+                continue;
+            }
+            Commit commit = Commit.load(uid);
+            Tree.mark(commit.getTreeID(), marks);
+            for (String parentID : commit.getParentIDs()) {
+                if (marks.mark(parentID)) {
+                    queue.add(parentID);
+                }
+            }
+        }
+    }
+
+    /** Append BITS to OUT: the number of 64-bit words, then pairs of a run
+     *  and the literal words after it. A run is written as a varint
+     *  holding its length in words times two, plus one if its words are
+     *  all ones, and is followed by the number of literal words and the
+     *  words themselves. */
+    private static void encode(BitSet bits, ByteArrayOutputStream out) {
+        long[] words = bits.toLongArray();
+        Utils.writeVarint(out, words.length);
+        int i = 0;
+        while (i < words.length) {
+            long fill = words[i] == -1L ? -1L : 0L;
+            int run = 0;
+            while (i < words.length && words[i] == fill) {
+                run += 1;
+                i += 1;
+            }
+            int start = i;
+            while (i < words.length && words[i] != 0L && words[i] != -1L) {
+                i += 1;
+            }
+            Utils.writeVarint(out, 2L * run + (fill == -1L ? 1 : 0));
+            Utils.writeVarint(out, i - start);
+            ByteBuffer literals = ByteBuffer.allocate(8 * (i - start));
+            for (int k = start; k < i; k += 1) {
+                literals.putLong(words[k]);
+            }
+            out.writeBytes(literals.array());
+        }
+    }
+
+    /** Return the bitmap encoded in DATA at OFFSET. */
+    private static BitSet decode(ByteBuffer data, int offset) {
+        byte[] head = new byte[10];
+        int[] pos = {offset};
+        long[] words = new long[(int) readVarint(data, pos, head)];
+        int i = 0;
+        while (i < words.length) {
+            long run = readVarint(data, pos, head);
+            long fill = (run & 1) == 1 ? -1L : 0L;
+            for (long k = run >>> 1; k > 0; k -= 1) {
+                words[i++] = fill;
+            }
+            for (long k = readVarint(data, pos, head); k > 0; k -= 1) {
+                words[i++] = data.getLong(pos[0]);
+                pos[0] += 8;
+            }
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /** Read a varint from DATA at POS[0], advancing POS[0] past it, using
+     *  HEAD as scratch space. */
+    private static long readVarint(ByteBuffer data, int[] pos, byte[] head) {
+        int n = Math.min(head.length, data.capacity() - pos[0]);
+        data.get(pos[0], head, 0, n);
+        int[] at = {0};
+        long value = Utils.readVarint(head, at);
+        pos[0] += at[0];
+        return value;
+    }
+}
@@ -1,45 +1,73 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-
-class Blob implements Serializable {
-    private static final long serialVersionUID = 1L;
-    String ID;
-    Object ref;
-
-    public Blob(Object ref) {
-        if (ref instanceof File) {
-            this.ID = Utils.sha1(Utils.serialize((File) ref));
+import java.util.Collection;
+
+/** Represents the contents of a tracked file.
+ *  A blob is identified by the SHA-1 of its bytes. The bytes themselves are
+ *  kept once in the ObjectStore, so commits and the staging area only ever
+ *  hold blob ids. A large file may instead be stored as a list of Chunks
+ *  under the same id, which only this class needs to know.
+ *
+ *  @author Sueray
+ */
+class Blob {
+
+    /** Take a snapshot of FILE, saving its contents in the object store.
+     * @param file the file to be saved
+     * @return the id of the saved blob
+     */
+    public static String snapShot(File file) {
+        if (Chunks.wanted(file)) {
+            return Chunks.save(file);
         }
-        this.ref = ref;
+        return ObjectStore.putFile(ObjectStore.BLOB, file);
     }
 
-    public Blob(String ID, Object ref) {
-        this.ID = ID;
-        this.ref = ref;
+    /** Replace the contents of DEST with those of the blob with the given
+     *  ID, copying them from the object store without reading them in. */
+    public static void copyTo(String id, File dest) {
+        if (!ObjectStore.copyTo(id, ObjectStore.BLOB, dest)) {
+            chunks(id).copyTo(dest);
+        }
     }
 
-    public Object getID() {
-        return ID;
+    /** Return the contents of the blob with the given id, which must not
+     *  be changed. */
+    public static byte[] contents(String id) {
+        byte[] contents = ObjectCache.SHARED.get(id, byte[].class);
+        if (contents == null) {
+            contents = ObjectStore.get(id, ObjectStore.BLOB);
+            if (contents == null) {
+                contents = chunks(id).contents();
+            }
+            ObjectCache.SHARED.put(id, contents, ObjectCache.OBJECT_BYTES + contents.length);
+        }
+        return contents;
     }
 
-    public Object getRef() {
-        return ref;
+    /** Mark the blob ID in MARKS, along with its chunks if it has any. */
+    static void mark(String id, ObjectStore.Marks marks) {
+        if (marks.mark(id) && ObjectStore.type(id) == ObjectStore.CHUNKED) {
+            chunks(id).mark(marks);
+        }
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        Blob b = (Blob) obj;
-        return ID.equals(b.getID());
+    /** Add to OBJECTS the blob ID, which replaced the blob OLDID (or null)
+     *  of the same file, along with those of its chunks that OLDID lacks. */
+    static void newObjects(String oldID, String id, Collection<String> objects) {
+        if (objects.add(id) && ObjectStore.type(id) == ObjectStore.CHUNKED) {
+            Chunks old = oldID == null ? null : Chunks.read(oldID);
+            chunks(id).newChunks(old, objects);
+        }
     }
 
-    public static Blob snapShot(File file){
-        byte[] contents = Utils.readContents(file);
-        Blob copy = new Blob(Utils.sha1(contents), contents);
-        return copy;
+    /** Return the chunks of the blob ID, which must be stored in chunks. */
+    private static Chunks chunks(String id) {
+        Chunks chunks = Chunks.read(id);
+        if (chunks == null) {
+            throw Utils.error("Missing blob %s.", id);
+        }
+        return chunks;
     }
 }
@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/** The list of chunks of a file stored in chunks. Large files, those of at
+ *  least the size set as chunk.threshold in the Config, are cut into chunks
+ *  that are stored as blobs of their own, and the file's blob is replaced
+ *  by a CHUNKED object holding the ids and sizes of its chunks in order.
+ *  The file is still named by the SHA-1 of its whole contents, so trees,
+ *  the staging area and the index do not change, and only Blob needs to
+ *  know how it is stored. A chunk shared by two files, or by two versions
+ *  of one file, is stored once, so a large file edited in the middle costs
+ *  only the chunks around the edit.
+ *
+ *  Chunk boundaries are chosen by the contents, as FastCDC does, so that
+ *  bytes inserted or removed only move the boundaries near them. A Gear
+ *  hash (shifted left one bit per byte, plus a random number for the byte)
+ *  is rolled over the bytes, and a chunk ends where its top bits are all
+ *  zero. No chunk is shorter than MIN_BYTES or longer than MAX_BYTES, and
+ *  the test is stricter before AVERAGE_BYTES and looser after it, which
+ *  keeps the sizes close to the average. The file is cut in one pass,
+ *  while the chunks are hashed and stored by a pool of threads.
+ *
+ *  @author Sueray
+ */
+class Chunks {
+
+    /** The fewest bytes in a chunk, apart from the last one of a file. */
+    static final int MIN_BYTES = 16 << 10;
+    /** The usual number of bytes in a chunk. */
+    static final int AVERAGE_BYTES = 64 << 10;
+    /** The most bytes in a chunk. */
+    static final int MAX_BYTES = 256 << 10;
+    /** The bits of the hash that must be zero to end a chunk shorter than
+     *  AVERAGE_BYTES: two more than the average needs. */
+    private static final long STRICT_MASK = -1L << (64 - 18);
+    /** The bits of the hash that must be zero to end a longer chunk: two
+     *  fewer than the average needs. */
+    private static final long LOOSE_MASK = -1L << (64 - 14);
+    /** The number added to the hash for each value of a byte. */
+    private static final long[] GEAR = new long[256];
+    /** The number of threads hashing and storing chunks. */
+    private static final int HASHERS = Runtime.getRuntime().availableProcessors();
+
+    static {
+        long seed = 0;
+        for (int b = 0; b < GEAR.length; b += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+            GEAR[b] = z ^ z >>> 31;
+        }
+    }
+
+    /** The ids of the chunks, in order. */
+    private final String[] ids;
+    /** The sizes of the chunks in bytes. */
+    private final int[] sizes;
+
+    /** The list of chunks with the given IDS and SIZES. */
+    Chunks(String[] ids, int[] sizes) {
+        this.ids = ids;
+        this.sizes = sizes;
+    }
+
+    /** Return the number of chunks. */
+    int count() {
+        return ids.length;
+    }
+
+    /** Return the id of the K-th chunk. */
+    String id(int k) {
+        return ids[k];
+    }
+
+    /** Return the size in bytes of the K-th chunk. */
+    int size(int k) {
+        return sizes[k];
+    }
+
+    /** Return true iff FILE is large enough to be stored in chunks. */
+    static boolean wanted(File file) {
+        long length = file.length();
+        return length > MAX_BYTES && length >= Config.chunkThreshold();
+    }
+
+    /** Save the contents of FILE in chunks, storing every chunk not yet
+     *  stored and the list of them. At most two chunks per thread are held
+     *  in memory at once, however large the file is.
+     * @return the id of the file's blob: the SHA-1 of its contents
+     */
+    static String save(File file) {
+        MessageDigest whole = Utils.sha1Digest();
+        List<Future<String>> pending = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        Semaphore room = new Semaphore(2 * HASHERS);
+        ExecutorService hashers = Executors.newFixedThreadPool(HASHERS);
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * MAX_BYTES);
+            buffer.flip();
+            boolean atEnd = false;
+            while (true) {
+                if (!atEnd && buffer.remaining() < MAX_BYTES) {
+                    buffer.compact();
+                    while (buffer.hasRemaining() && !atEnd) {
+                        atEnd = in.read(buffer) < 0;
+                    }
+                    buffer.flip();
+                }
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                int start = buffer.position();
+                int end = cut(buffer.array(), start, buffer.limit());
+                byte[] chunk = new byte[end - start];
+                buffer.get(chunk);
+                whole.update(chunk);
+                sizes.add(chunk.length);
+                room.acquire();
+                pending.add(hashers.submit(() -> {
+                    try {
+                        String id = Utils.sha1(chunk);
+                        ObjectStore.put(ObjectStore.BLOB, id, chunk);
+                        return id;
+                    } finally {
+                        room.release();
+                    }
+                }));
+            }
+            String[] ids = new String[pending.size()];
+            int[] chunkSizes = new int[ids.length];
+            for (int k = 0; k < ids.length; k += 1) {
+                ids[k] = pending.get(k).get();
+                chunkSizes[k] = sizes.get(k);
+            }
+            String id = Utils.toHex(whole.digest());
+            ObjectStore.put(ObjectStore.CHUNKED, id, Codec.CHUNKS.encode(new Chunks(ids, chunkSizes)));
+            return id;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp);
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    /** Return the list of chunks of the blob ID, or null if it is not
+     *  stored in chunks. */
+    static Chunks read(String id) {
+        Chunks chunks = ObjectCache.SHARED.get(id, Chunks.class);
+        if (chunks == null) {
+            byte[] data = ObjectStore.get(id, ObjectStore.CHUNKED);
+            if (data == null) {
+                return null;
+            }
+            chunks = Codec.CHUNKS.decode(data);
+            ObjectCache.SHARED.put(id, chunks, ObjectCache.OBJECT_BYTES + data.length);
+        }
+        return chunks;
+    }
+
+    /** Return the contents of the file, joined from its chunks. */
+    byte[] contents() {
+        long total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw Utils.error("File too large to read into memory.");
+        }
+        ByteBuffer result = ByteBuffer.allocate((int) total);
+        for (String id : ids) {
+            byte[] chunk = ObjectStore.get(id, ObjectStore.BLOB);
+            if (chunk == null) {
+                throw Utils.error("Missing blob %s.", id);
+            }
+            result.put(chunk);
+        }
+        return result.array();
+    }
+
+    /** Replace the contents of DEST with those of the file, copying each
+     *  chunk from the object store without reading it in. */
+    void copyTo(File dest) {
+        try (FileChannel out = Utils.openForWrite(dest)) {
+            for (String id : ids) {
+                if (!ObjectStore.copyTo(id, ObjectStore.BLOB, out)) {
+                    throw Utils.error("Missing blob %s.", id);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Mark in MARKS the chunks of the file. */
+    void mark(ObjectStore.Marks marks) {
+        for (String id : ids) {
+            marks.mark(id);
+        }
+    }
+
+    /** Add to OBJECTS the chunks of the file that are not chunks of OLD,
+     *  which may be null. */
+    void newChunks(Chunks old, Collection<String> objects) {
+        HashSet<String> had = new HashSet<>();
+        if (old != null) {
+            had.addAll(List.of(old.ids));
+        }
+        for (String id : ids) {
+            if (!had.contains(id)) {
+                objects.add(id);
+            }
+        }
+    }
+
+    /** Return the end of the chunk of DATA that starts at START, where
+     *  the data available ends at END. Unless the data ends sooner, the
+     *  first MIN_BYTES bytes are skipped without being hashed, as no chunk
+     *  may end there. */
+    static int cut(byte[] data, int start, int end) {
+        if (end - start <= MIN_BYTES) {
+            return end;
+        }
+        int average = Math.min(start + AVERAGE_BYTES, end);
+        int limit = Math.min(start + MAX_BYTES, end);
+        long hash = 0;
+        int i = start + MIN_BYTES;
+        for (; i < average; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & STRICT_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & LOOSE_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
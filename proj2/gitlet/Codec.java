@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/** A compact binary encoding of one kind of gitlet record, used in place of
+ *  Java serialization. An encoded record starts with the tag of its codec
+ *  and its format version, one byte each; a codec reads every version up
+ *  to the one it writes. Numbers are written as varints,
+ *  strings as their length followed by their UTF-8 bytes, and ids as their
+ *  20 raw bytes.
+ *
+ *  Every codec is registered under its tag, so that a record can be decoded
+ *  without knowing in advance what it holds.
+ *
+ *  @author Sueray
+ */
+abstract class Codec<T> {
+
+    /** The codecs, indexed by tag. */
+    private static final Codec<?>[] REGISTRY = new Codec<?>[256];
+
+    /** Maps from names to ids, such as branches and the staging area. */
+    static final Codec<HashMap<String, String>> ID_MAP = new IdMap<>(1, HashMap::new);
+    /** Tree objects, mapping names in one directory to blob and tree ids. */
+    static final Codec<TreeMap<String, String>> TREE = new IdMap<>(2, TreeMap::new);
+    /** Commits. */
+    static final Codec<Commit> COMMIT = new Codec<>(3, 2) {
+        @Override
+        void write(Output out, Commit commit) {
+            out.id(commit.getUID());
+            out.varint(commit.getTime());
+            out.string(commit.getLog());
+            List<String> parents = commit.getParentIDs();
+            out.varint(parents.size());
+            for (String parent : parents) {
+                out.id(parent);
+            }
+            out.id(commit.getTreeID());
+        }
+
+        @Override
+        Commit read(Input in) {
+            String uid = in.id();
+            long time = in.varint();
+            String log = in.string();
+            List<String> parents = new ArrayList<>(2);
+            for (int n = (int) in.varint(); n > 0; n -= 1) {
+                parents.add(in.id());
+            }
+            if (in.version() == 1) {
+                TreeMap<String, String> files = new TreeMap<>();
+                IdMap.readEntries(in, files);
+                return new Commit(uid, log, time, parents, null, files);
+            }
+            return new Commit(uid, log, time, parents, in.id(), null);
+        }
+    };
+    /** Maps from names to arbitrary strings, such as remotes. */
+    static final Codec<TreeMap<String, String>> STRING_MAP = new Codec<>(4) {
+        @Override
+        void write(Output out, TreeMap<String, String> map) {
+            out.varint(map.size());
+            for (Map.Entry<String, String> e : map.entrySet()) {
+                out.string(e.getKey());
+                out.string(e.getValue());
+            }
+        }
+
+        @Override
+        TreeMap<String, String> read(Input in) {
+            TreeMap<String, String> map = new TreeMap<>();
+            for (long n = in.varint(); n > 0; n -= 1) {
+                map.put(in.string(), in.string());
+            }
+            return map;
+        }
+    };
+    /** The lists of chunks of files stored in chunks. */
+    static final Codec<Chunks> CHUNKS = new Codec<>(5) {
+        @Override
+        void write(Output out, Chunks chunks) {
+            out.varint(chunks.count());
+            for (int k = 0; k < chunks.count(); k += 1) {
+                out.id(chunks.id(k));
+                out.varint(chunks.size(k));
+            }
+        }
+
+        @Override
+        Chunks read(Input in) {
+            int count = (int) in.varint();
+            String[] ids = new String[count];
+            int[] sizes = new int[count];
+            for (int k = 0; k < count; k += 1) {
+                ids[k] = in.id();
+                sizes[k] = (int) in.varint();
+            }
+            return new Chunks(ids, sizes);
+        }
+    };
+
+    /** The tag of this codec. */
+    private final byte tag;
+    /** The version of the records this codec writes. */
+    private final byte version;
+
+    /** A codec with the given TAG, which must be unused, writing records
+     *  of the first version. */
+    Codec(int tag) {
+        this(tag, 1);
+    }
+
+    /** A codec with the given TAG, which must be unused, writing records
+     *  of the given VERSION and reading those of any earlier one. */
+    Codec(int tag, int version) {
+        if (REGISTRY[tag] != null) {
+            throw Utils.error("Codec tag %d is taken.", tag);
+        }
+        this.tag = (byte) tag;
+        this.version = (byte) version;
+        REGISTRY[tag] = this;
+    }
+
+    /** Write the fields of VALUE to OUT. */
+    abstract void write(Output out, T value);
+
+    /** Return a value read from IN. */
+    abstract T read(Input in);
+
+    /** Return the encoding of VALUE. */
+    byte[] encode(T value) {
+        Output out = new Output();
+        out.bytes.write(tag);
+        out.bytes.write(version);
+        write(out, value);
+        return out.bytes.toByteArray();
+    }
+
+    /** Return the value encoded in DATA, which must have been written by
+     *  this codec. */
+    T decode(byte[] data) {
+        if (data.length < 2 || data[0] != tag || data[1] < 1 || data[1] > version) {
+            throw Utils.error("Unexpected record format.");
+        }
+        return read(new Input(data, data[1], 2));
+    }
+
+    /** Replace the contents of FILE with the encoding of VALUE. */
+    void write(File file, T value) {
+        Utils.writeAtomically(file, encode(value));
+    }
+
+    /** Return the value encoded in FILE. */
+    T read(File file) {
+        return decode(Utils.readContents(file));
+    }
+
+    /** Return the value encoded in DATA by whichever codec wrote it. */
+    static Object decodeAny(byte[] data) {
+        Codec<?> codec = data.length == 0 ? null : REGISTRY[data[0] & 0xFF];
+        if (codec == null) {
+            throw Utils.error("Unknown record format.");
+        }
+        return codec.decode(data);
+    }
+
+    /** The encoder of a record. */
+    static class Output {
+        /** The bytes written so far. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** Write the non-negative number N. */
+        void varint(long n) {
+            Utils.writeVarint(bytes, n);
+        }
+
+        /** Write the string S. */
+        void string(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            bytes.write(utf8, 0, utf8.length);
+        }
+
+        /** Write the 40-digit hexadecimal ID. */
+        void id(String id) {
+            bytes.writeBytes(Utils.fromHex(id));
+        }
+    }
+
+    /** The decoder of a record. */
+    static class Input {
+        /** The record. */
+        private final byte[] data;
+        /** The version of the record. */
+        private final int version;
+        /** The position of the next unread byte of DATA. */
+        private final int[] pos;
+
+        Input(byte[] data, int version, int start) {
+            this.data = data;
+            this.version = version;
+            this.pos = new int[] {start};
+        }
+
+        /** Return the version of the record. */
+        int version() {
+            return version;
+        }
+
+        /** Read a non-negative number. */
+        long varint() {
+            return Utils.readVarint(data, pos);
+        }
+
+        /** Read a string. */
+        String string() {
+            int length = (int) varint();
+            String s = new String(data, pos[0], length, StandardCharsets.UTF_8);
+            pos[0] += length;
+            return s;
+        }
+
+        /** Read an id. */
+        String id() {
+            String id = Utils.toHex(data, pos[0], 20);
+            pos[0] += 20;
+            return id;
+        }
+    }
+
+    /** Maps from names to ids. Entries are written in order of name, each
+     *  name as the length of the prefix it shares with the previous name
+     *  followed by the rest of it, so that the many paths under one
+     *  directory cost little more than their last components. */
+    private static class IdMap<M extends Map<String, String>> extends Codec<M> {
+        /** Makes an empty map of the right kind. */
+        private final Supplier<M> empty;
+
+        IdMap(int tag, Supplier<M> empty) {
+            super(tag);
+            this.empty = empty;
+        }
+
+        @Override
+        void write(Output out, M map) {
+            writeEntries(out, map);
+        }
+
+        @Override
+        M read(Input in) {
+            M map = empty.get();
+            readEntries(in, map);
+            return map;
+        }
+
+        /** Write the entries of MAP to OUT. */
+        static void writeEntries(Output out, Map<String, String> map) {
+            Map<String, String> sorted = map instanceof TreeMap ? map : new TreeMap<>(map);
+            out.varint(sorted.size());
+            String previous = "";
+            for (Map.Entry<String, String> e : sorted.entrySet()) {
+                String name = e.getKey();
+                int shared = 0;
+                int limit = Math.min(name.length(), previous.length());
+                while (shared < limit && name.charAt(shared) == previous.charAt(shared)) {
+                    shared += 1;
+                }
+                if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) {
+                    shared -= 1;
+                }
+                out.varint(shared);
+                out.string(name.substring(shared));
+                out.id(e.getValue());
+                previous = name;
+            }
+        }
+
+        /** Read entries from IN into MAP. */
+        static void readEntries(Input in, Map<String, String> map) {
+            String previous = "";
+            for (long n = in.varint(); n > 0; n -= 1) {
+                int shared = (int) in.varint();
+                String name = previous.substring(0, shared) + in.string();
+                map.put(name, in.id());
+                previous = name;
+            }
+        }
+    }
+}
@@ -1,68 +1,124 @@
 package gitlet;
 
-import java.io.Serializable;
-import java.util.Map;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.TreeMap;
 
 /** Represents a gitlet commit object.
- *  It's a good idea to give a description here of what else this Class
- *  does at a high level.
+ *  A commit records its message, its time, its parents and the root Tree of
+ *  its snapshot, and is named by a hash of all of these. The snapshot is
+ *  flattened into a map from paths to blob ids only when it is first asked
+ *  for. Commits made before trees were used hold that map instead, and get
+ *  a root tree when one is first needed.
  *
  *  @author Sueray
  */
-class Commit implements Serializable, Cloneable {
+class Commit implements Cloneable {
+
+    /** The format in which commit times are displayed. */
+    private static final String DATE_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
 
     /** The UID that identifies different commits. */
     private String UID;
-    /** The timestamp of commit, initialized to 01/01/1970 00:00:00 (UTC). */
-    private String timestamp;
+    /** The time of commit in milliseconds, 0 (01/01/1970 00:00:00 UTC)
+     *  for the initial commit. */
+    private long time;
     /** The log of commit */
     private String log;
-    /** The parent commit of current commit. */
-    private Commit parent;
-    /** The branch that current commit belongs to. */
-    private String branch;
-    /** The tree that maps objects' names to blobs (identified by id/sha1). */
-    private TreeMap<String, Blob> treeOfBlobs = new TreeMap<>();
+    /** The UID of the parent commit, or null for the initial commit. */
+    private String parent;
+    /** The UID of the merged-in parent of a merge commit, or null. */
+    private String secondParent;
+    /** The tree that maps file names to the ids of their blobs, or null
+     *  until it is first asked for. */
+    private TreeMap<String, String> treeOfBlobs = new TreeMap<>();
+    /** The id of the root tree of the snapshot, or null until it is first
+     *  asked for if this commit was made before trees were used. */
+    private String tree;
 
     /** The constructor with no argument creates an initial commit. */
     public Commit() {
-        timestamp = "Wed Dec 31 19:00:00 EST 1969";
+        time = 0;
         log = "initial commit";
-        UID = Utils.sha1(log, timestamp);
-        parent = this;
-        branch = "master";
+        UID = Utils.sha1(log, Long.toString(time));
+        parent = null;
+    }
+
+    /** Create a commit whose parent is the commit with UID PARENT
+     *  and whose files are given by the root tree TREE. */
+    public Commit(String log, long time, String parent, String tree) {
+        this(log, time, parent, null, tree);
     }
 
-    public Commit(String log, String timestamp, Commit parent, String branch) {
-        this.timestamp = timestamp;
+    /** Create a merge commit whose parents are the commits with UIDs PARENT
+     *  and SECONDPARENT and whose files are given by the root tree TREE. */
+    public Commit(String log, long time, String parent, String secondParent,
+                  String tree) {
+        this.time = time;
         this.log = log;
         this.parent = parent;
-        this.branch = branch;
-        UID = Utils.sha1(log, timestamp, Utils.serialize(treeOfBlobs), Utils.serialize(parent));
+        this.secondParent = secondParent;
+        this.tree = tree;
+        this.treeOfBlobs = null;
+        UID = Utils.sha1(log, Long.toString(time), tree, parent,
+                secondParent == null ? "" : secondParent);
     }
 
-    /** Add an object to the object tree.
-     * @param name the key of object
-     * @param b the actual content mapped by name
-     */
-    public void addBlob(String name, Blob b) {
-        treeOfBlobs.put(name, b);
+    /** Create the commit UID, as decoded from storage, whose parents are
+     *  PARENTS and whose files are given by the root tree TREE or, for a
+     *  commit made before trees were used, by TREEOFBLOBS. */
+    Commit(String uid, String log, long time, List<String> parents,
+           String tree, TreeMap<String, String> treeOfBlobs) {
+        this.UID = uid;
+        this.log = log;
+        this.time = time;
+        this.parent = parents.size() > 0 ? parents.get(0) : null;
+        this.secondParent = parents.size() > 1 ? parents.get(1) : null;
+        this.tree = tree;
+        this.treeOfBlobs = treeOfBlobs;
     }
 
-    /** Add an object to the object tree.
-     * @param name the key of object
+    /** Return the commit with the given UID, reading it from disk unless
+     *  it is in the ObjectCache.
+     * @param uid the UID of the commit
+     * @return the commit, or null if no commit has that UID
      */
-    public void removeBlob(String name) {
-        treeOfBlobs.remove(name);
+    public static Commit load(String uid) {
+        Commit commit = ObjectCache.SHARED.get(uid, Commit.class);
+        if (commit == null) {
+            byte[] stored = ObjectStore.get(uid, ObjectStore.COMMIT);
+            if (stored == null) {
+                return null;
+            }
+            commit = Codec.COMMIT.decode(stored);
+            commit.cache();
+        }
+        return commit;
+    }
+
+    /** Write this commit to the object store. */
+    public void save() {
+        ObjectStore.put(ObjectStore.COMMIT, UID, Codec.COMMIT.encode(this));
+        cache();
+    }
+
+    /** Put this commit in the ObjectCache, or update its size there. */
+    private void cache() {
+        long bytes = 4 * ObjectCache.OBJECT_BYTES + 2L * log.length();
+        if (treeOfBlobs != null) {
+            bytes += ObjectCache.sizeOf(treeOfBlobs);
+        }
+        ObjectCache.SHARED.put(UID, this, bytes);
     }
 
     /** Search for the target in the object tree.
      * @param name the name of target object
-     * @return the target object or null if target doesn't exist
+     * @return the id of the target blob or null if target doesn't exist
      */
-    public Blob searchFor(String name) {
-        return treeOfBlobs.get(name);
+    public String searchFor(String name) {
+        return getTreeOfBlobs().get(name);
     }
 
     //getter and setters
@@ -70,33 +126,61 @@ class Commit implements Serializable, Cloneable {
         return UID;
     }
 
+    /** Return the time of this commit, formatted for display. */
     public String getTimestamp() {
-        return timestamp;
+        return new SimpleDateFormat(DATE_FORMAT).format(new Date(time));
+    }
+
+    /** Return the time of this commit in milliseconds. */
+    public long getTime() {
+        return time;
     }
 
     public String getLog() {
         return log;
     }
 
-    public Commit getParent() {
+    /** Return the UID of the parent commit, or null for the initial commit. */
+    public String getParentID() {
         return parent;
     }
 
-    public TreeMap<String, Blob> getTreeOfBlobs() {
-        return treeOfBlobs;
+    /** Return the UID of the merged-in parent of a merge commit, or null. */
+    public String getSecondParentID() {
+        return secondParent;
     }
 
-    public void setTreeOfBlobs(TreeMap<String, Blob> treeOfBlobs) {
-        for (Map.Entry<String, Blob> entries : treeOfBlobs.entrySet()) {
-            this.treeOfBlobs.put(entries.getKey(), entries.getValue());
+    /** Return the UIDs of all parents of this commit, first parent first. */
+    public List<String> getParentIDs() {
+        List<String> result = new ArrayList<>(2);
+        if (parent != null) {
+            result.add(parent);
+        }
+        if (secondParent != null) {
+            result.add(secondParent);
         }
+        return result;
     }
 
-    public String getBranch() {
-        return branch;
+    /** Return the parent commit, or null for the initial commit. */
+    public Commit getParent() {
+        return parent == null ? null : load(parent);
     }
 
-    public void setBranch(String branch) {
-        this.branch = branch;
+    public TreeMap<String, String> getTreeOfBlobs() {
+        if (treeOfBlobs == null) {
+            treeOfBlobs = Tree.flatten(tree);
+            cache();
+        }
+        return treeOfBlobs;
+    }
+
+    /** Return the id of the root tree of this commit, storing the trees of
+     *  a commit made before trees were used. */
+    public String getTreeID() {
+        if (tree == null) {
+            tree = Tree.write(treeOfBlobs);
+        }
+        return tree;
     }
 }
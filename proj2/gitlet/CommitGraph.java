@@ -0,0 +1,371 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** The shape of the commit history: each commit's parents, generation
+ *  number and time, without its message or files.
+ *
+ *  The generation number of the initial commit is 1, and that of any other
+ *  commit is one more than the largest generation of its parents, so a
+ *  commit can only be an ancestor of commits with larger generations. Walks
+ *  visit commits in decreasing order of generation and stop as soon as the
+ *  remaining commits are too old to matter, so answering "is A an ancestor
+ *  of B" or "where did A and B diverge" only visits the history between them.
+ *
+ *  gc writes .gitlet/commit-graph, which is mapped into memory with one call.
+ *  It holds a header (magic, version, number of commits), the sorted 20-byte
+ *  commit UIDs, and for each commit the positions of its two parents (-1 if
+ *  absent), its generation and its time. Commits made since the last gc are
+ *  not in the file; they are read from the object store when first needed.
+ *
+ *  @author Sueray
+ */
+class CommitGraph {
+
+    /** The file holding the commit graph. */
+    static final File GRAPH_FILE = Utils.join(Repository.GITLET_DIR, "commit-graph");
+
+    /** Magic number opening the commit-graph file ("GCGR"). */
+    private static final int MAGIC = 0x47434752;
+    /** Format version of the commit-graph file. */
+    private static final int VERSION = 1;
+    /** Size in bytes of the header. */
+    private static final int HEADER_BYTES = 12;
+    /** Size in bytes of a commit UID. */
+    private static final int ID_BYTES = 20;
+    /** Size in bytes of the data kept for each commit. */
+    private static final int DATA_BYTES = 20;
+
+    /** The graph of this repository, read once per run. */
+    private static CommitGraph graph;
+
+    /** The contents of the commit-graph file, or null if there is none. */
+    private final ByteBuffer data;
+    /** The number of commits in the file. */
+    private final int count;
+    /** Generations of commits that are not in the file. */
+    private final HashMap<String, Integer> extraGenerations = new HashMap<>();
+
+    /** Read the commit graph from GRAPH_FILE, if it exists. */
+    private CommitGraph() {
+        ByteBuffer contents = null;
+        if (GRAPH_FILE.isFile()) {
+            try (FileChannel channel = FileChannel.open(GRAPH_FILE.toPath())) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (contents.getInt(0) != MAGIC || contents.getInt(4) != VERSION) {
+                contents = null;
+            }
+        }
+        data = contents;
+        count = data == null ? 0 : data.getInt(8);
+    }
+
+    /** Return the commit graph of this repository. */
+    static CommitGraph get() {
+        if (graph == null) {
+            graph = new CommitGraph();
+        }
+        return graph;
+    }
+
+    /** Return the generation number of the commit UID. */
+    int generation(String uid) {
+        int i = find(uid);
+        if (i >= 0) {
+            return data.getInt(dataStart(i) + 8);
+        }
+        Integer known = extraGenerations.get(uid);
+        if (known != null) {
+            return known;
+        }
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(uid);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            int generation = 0;
+            boolean ready = true;
+            for (String parent : parents(top)) {
+                Integer g = find(parent) >= 0 ? (Integer) generation(parent)
+                        : extraGenerations.get(parent);
+                if (g == null) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, g);
+                }
+            }
+            if (ready) {
+                stack.pop();
+                extraGenerations.put(top, generation + 1);
+            }
+        }
+        return extraGenerations.get(uid);
+    }
+
+    /** Return the time in milliseconds of the commit UID. */
+    long time(String uid) {
+        int i = find(uid);
+        if (i >= 0) {
+            return data.getLong(dataStart(i) + 12);
+        }
+        return Commit.load(uid).getTime();
+    }
+
+    /** Return the UIDs of the parents of the commit UID, first parent
+     *  first. */
+    List<String> parents(String uid) {
+        int i = find(uid);
+        if (i < 0) {
+            return Commit.load(uid).getParentIDs();
+        }
+        List<String> result = new ArrayList<>(2);
+        for (int k = 0; k < 2; k += 1) {
+            int parent = data.getInt(dataStart(i) + 4 * k);
+            if (parent >= 0) {
+                result.add(idAt(parent));
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff the commit ANCESTOR is the commit UID or one of its
+     *  ancestors. */
+    boolean isAncestor(String ancestor, String uid) {
+        int floor = generation(ancestor);
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(uid);
+        while (!stack.isEmpty()) {
+            String c = stack.pop();
+            if (c.equals(ancestor)) {
+                return true;
+            }
+            if (!visited.add(c) || generation(c) <= floor) {
+                continue;
+            }
+            for (String parent : parents(c)) {
+                stack.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /** Return the UID of a latest common ancestor of the commits A and B:
+     *  a common ancestor that is not an ancestor of any other common
+     *  ancestor. Both histories are walked at once, newest generation first,
+     *  marking each commit with the sides it was reached from. A commit is
+     *  only taken from the queue after every commit that could reach it,
+     *  so its marks are final by then, and the first commit reached from
+     *  both sides is the answer. */
+    String mergeBase(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        final int fromA = 1;
+        final int fromB = 2;
+        HashMap<String, Integer> marks = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingInt((String c) -> generation(c)).reversed()
+                        .thenComparing(Comparator.comparingLong((String c) -> time(c)).reversed()));
+        marks.put(a, fromA);
+        marks.put(b, fromB);
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            String c = queue.remove();
+            int mark = marks.get(c);
+            if (mark == (fromA | fromB)) {
+                return c;
+            }
+            for (String parent : parents(c)) {
+                int old = marks.getOrDefault(parent, 0);
+                if (old == 0) {
+                    queue.add(parent);
+                }
+                marks.put(parent, old | mark);
+            }
+        }
+        return null;
+    }
+
+    /** Return the commits reachable from WANTS but not from HAVES, which
+     *  must all be stored, such as the commits another repository lacks
+     *  when it has HAVES. Both sets are walked at once, newest generation
+     *  first, as in mergeBase; the walk stops once every queued commit is
+     *  reachable from HAVES, so it only visits the new commits and the
+     *  edge of the old ones. */
+    List<String> missing(Collection<String> wants, Collection<String> haves) {
+        final int wanted = 1;
+        final int had = 2;
+        HashMap<String, Integer> marks = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingInt((String c) -> generation(c)).reversed());
+        for (String have : haves) {
+            if (marks.put(have, had) == null) {
+                queue.add(have);
+            }
+        }
+        int wantedOnly = 0;
+        for (String want : wants) {
+            if (!marks.containsKey(want)) {
+                marks.put(want, wanted);
+                queue.add(want);
+                wantedOnly += 1;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        while (wantedOnly > 0) {
+            String c = queue.remove();
+            int mark = marks.get(c);
+            if (mark == wanted) {
+                wantedOnly -= 1;
+                result.add(c);
+            }
+            for (String parent : parents(c)) {
+                Integer old = marks.get(parent);
+                if (old == null) {
+                    queue.add(parent);
+                    if (mark == wanted) {
+                        wantedOnly += 1;
+                    }
+                } else if (old == wanted && mark != wanted) {
+                    wantedOnly -= 1;
+                }
+                marks.put(parent, old == null ? mark : old | mark);
+            }
+        }
+        return result;
+    }
+
+    /** Return the commits reachable from STARTS, each once, newest first.
+     *  Commits are produced lazily from a queue ordered by time (and by
+     *  generation between commits made at the same time), so taking the
+     *  first few costs time proportional to how many are taken rather than
+     *  to the length of the history.
+     * @param firstParent whether to follow only the first parent of each
+     *                    commit, as log does by default
+     */
+    Iterator<String> walk(Collection<String> starts, boolean firstParent) {
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingLong((String c) -> time(c)).reversed()
+                        .thenComparing(Comparator.comparingInt((String c) -> generation(c)).reversed()));
+        HashSet<String> seen = new HashSet<>();
+        for (String start : starts) {
+            if (seen.add(start)) {
+                queue.add(start);
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                String c = queue.remove();
+                List<String> parents = parents(c);
+                for (int k = 0; k < parents.size() && !(firstParent && k > 0); k += 1) {
+                    if (seen.add(parents.get(k))) {
+                        queue.add(parents.get(k));
+                    }
+                }
+                return c;
+            }
+        };
+    }
+
+    /** Write the commit graph of all stored commits to GRAPH_FILE, and
+     *  use it for the rest of this run. */
+    static void write() {
+        List<String> uids = ObjectStore.list(ObjectStore.COMMIT);
+        CommitGraph current = get();
+        HashMap<String, Integer> position = new HashMap<>();
+        for (int i = 0; i < uids.size(); i += 1) {
+            position.put(uids.get(i), i);
+        }
+        File temp = Utils.join(Repository.GITLET_DIR, "commit-graph.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(uids.size());
+            for (String uid : uids) {
+                out.write(Utils.fromHex(uid));
+            }
+            for (String uid : uids) {
+                List<String> parents = current.parents(uid);
+                for (int k = 0; k < 2; k += 1) {
+                    out.writeInt(k < parents.size() ? position.get(parents.get(k)) : -1);
+                }
+                out.writeInt(current.generation(uid));
+                out.writeLong(current.time(uid));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), GRAPH_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** Return the position of UID in the file, or -1 if it is not there. */
+    private int find(String uid) {
+        if (data == null) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(uid);
+        byte[] probe = new byte[ID_BYTES];
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            data.get(HEADER_BYTES + mid * ID_BYTES, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the UID of the commit at position I in the file. */
+    private String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        data.get(HEADER_BYTES + i * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Return the offset in the file of the data of the commit at I. */
+    private int dataStart(int i) {
+        return HEADER_BYTES + count * ID_BYTES + i * DATA_BYTES;
+    }
+}
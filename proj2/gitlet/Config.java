@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The settings of a repository, saved in .gitlet/config as a map from
+ *  names to values and changed with "gitlet config". Only the names in
+ *  KEYS may be set; a setting that is not set has its default.
+ *
+ *  @author Sueray
+ */
+class Config {
+
+    /** The file holding the settings. */
+    static final File CONFIG = Utils.join(Repository.GITLET_DIR, "config");
+
+    /** The size in bytes from which files are stored in chunks. */
+    static final String CHUNK_THRESHOLD = "chunk.threshold";
+    /** The names of the settings. */
+    static final Set<String> KEYS = Set.of(CHUNK_THRESHOLD);
+
+    /** Return the settings. */
+    static TreeMap<String, String> all() {
+        return CONFIG.isFile() ? Codec.STRING_MAP.read(CONFIG) : new TreeMap<>();
+    }
+
+    /** Return the value of the setting KEY, or null if it is not set. */
+    static String get(String key) {
+        checkKey(key);
+        return all().get(key);
+    }
+
+    /** Set the setting KEY to VALUE, or unset it if VALUE is null. */
+    static void set(String key, String value) {
+        checkKey(key);
+        if (value != null && key.equals(CHUNK_THRESHOLD)
+                && !value.matches("[0-9]{1,18}")) {
+            throw Utils.error("Invalid value for %s.", key);
+        }
+        TreeMap<String, String> config = all();
+        if (value == null) {
+            config.remove(key);
+        } else {
+            config.put(key, value);
+        }
+        Codec.STRING_MAP.write(CONFIG, config);
+    }
+
+    /** Return the size in bytes from which files are stored in chunks, or
+     *  Long.MAX_VALUE if no file is. */
+    static long chunkThreshold() {
+        String value = all().get(CHUNK_THRESHOLD);
+        return value == null ? Long.MAX_VALUE : Long.parseLong(value);
+    }
+
+    /** Exit with an error unless KEY names a setting. */
+    private static void checkKey(String key) {
+        if (!KEYS.contains(key)) {
+            Utils.exitWithError("No such setting exists.");
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/** A long-running gitlet server for one repository, run with
+ *  "gitlet daemon", or started in the background with "gitlet daemon
+ *  start", and stopped with "gitlet daemon stop". Running every
+ *  command in one JVM keeps the commit cache, the commit graph, the mapped
+ *  packs and the index in memory between commands, so a command costs what
+ *  its own work costs rather than a JVM start and a cold read of the
+ *  repository.
+ *
+ *  The daemon listens on the Unix socket .gitlet/daemon.sock. While it
+ *  exists, Main forwards each command to it instead of running it, so all
+ *  commands go through the daemon and its caches stay current. A client
+ *  sends the number of arguments as an int followed by each argument in
+ *  modified UTF-8 (as DataOutputStream writes them), and gets back the
+ *  length of the command's output as an int followed by the output, then
+ *  in the same way the stack trace of any unexpected failure, which is
+ *  empty if there was none. Errors in the use of gitlet are part of the
+ *  output, as they are when gitlet runs without a daemon.
+ *  A connection may carry any number of commands, which lets a script pay
+ *  for connecting only once. Commands run one at a time, and share one
+ *  ObjectCache; "gitlet daemon stats" shows how well it is doing.
+ *
+ *  @author Sueray
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = Utils.join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** The longest time in milliseconds to wait for a new daemon. */
+    private static final int START_WAIT_MILLIS = 10000;
+
+    /** The server socket while the daemon runs. */
+    private static ServerSocketChannel server;
+
+    /** Serve commands on SOCKET until told to stop. */
+    static void serve() {
+        if (server != null) {
+            throw Utils.error("A daemon is already running.");
+        }
+        SOCKET.delete();
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(SOCKET.toPath());
+        try {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException excp) {
+                break;
+            }
+            Thread thread = new Thread(() -> talkTo(client));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        SOCKET.delete();
+    }
+
+    /** Start a daemon for this repository in a new process, which goes on
+     *  running after this command, and wait until it takes commands. */
+    static void start() {
+        if (server != null || SOCKET.exists() && running()) {
+            throw Utils.error("A daemon is already running.");
+        }
+        try {
+            new ProcessBuilder(Utils.gitletCommand("daemon"))
+                    .directory(Repository.CWD)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            for (int wait = 0; wait < START_WAIT_MILLIS; wait += 10) {
+                if (SOCKET.exists() && running()) {
+                    return;
+                }
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Could not start the daemon.");
+        }
+        throw Utils.error("Could not start the daemon.");
+    }
+
+    /** Return true iff a daemon answers on SOCKET. */
+    private static boolean running() {
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Forward the command ARGS to a running daemon and print its output.
+     * @return false if no daemon is running, so the command was not run
+     */
+    static boolean forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel connection;
+        try {
+            connection = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (SocketChannel channel = connection) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+            byte[] failure = new byte[in.readInt()];
+            in.readFully(failure);
+            if (failure.length > 0) {
+                throw new IllegalStateException("The daemon failed:\n"
+                        + new String(failure, StandardCharsets.UTF_8));
+            }
+            return true;
+        } catch (IOException excp) {
+            throw Utils.error("Lost the connection to the daemon.");
+        }
+    }
+
+    /** Run the commands sent by CLIENT until it disconnects. */
+    private static void talkTo(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            while (true) {
+                int argc;
+                try {
+                    argc = in.readInt();
+                } catch (EOFException excp) {
+                    return;
+                }
+                String[] args = new String[argc];
+                for (int i = 0; i < argc; i += 1) {
+                    args[i] = in.readUTF();
+                }
+                StringWriter failure = new StringWriter();
+                byte[] output = run(args, failure);
+                byte[] trace = failure.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(output.length);
+                out.write(output);
+                out.writeInt(trace.length);
+                out.write(trace);
+                out.flush();
+                if (isStop(args)) {
+                    server.close();
+                    return;
+                }
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return true iff ARGS is the command stopping the daemon. It is
+     *  answered before the server is closed, as the daemon exits then. */
+    private static boolean isStop(String[] args) {
+        return args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+    }
+
+    /** Run the command ARGS and return what it printed. Errors in the use
+     *  of gitlet are reported as Main reports them; the stack trace of any
+     *  other failure is written to FAILURE, to be shown by the client. */
+    private static synchronized byte[] run(String[] args, StringWriter failure) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        try {
+            if (isStop(args)) {
+                Files.deleteIfExists(SOCKET.toPath());
+            } else if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stats")) {
+                System.out.println(ObjectCache.SHARED.stats());
+            } else {
+                Main.run(args);
+            }
+        } catch (GitletException excp) {
+            Main.report(excp);
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace(new PrintWriter(failure));
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+        return buffer.toByteArray();
+    }
+}
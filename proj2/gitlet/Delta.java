@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Delta encoding of one version of a file against another.
+ *  A delta holds the lengths of its base and of its result as varints,
+ *  followed by instructions: a COPY reproduces a run of bytes of the base,
+ *  and an INSERT gives new bytes literally. Matches are found by hashing
+ *  every BLOCK-byte block of the base and looking up the rolling hash of
+ *  each window of the target, so a delta takes time linear in both sizes,
+ *  and its length grows with the size of the edit rather than of the file.
+ *
+ *  @author Sueray
+ */
+class Delta {
+
+    /** Instruction copying a run of the base: offset and length follow. */
+    private static final int COPY = 0;
+    /** Instruction inserting new bytes: length and bytes follow. */
+    private static final int INSERT = 1;
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME to the power BLOCK, used to roll a byte out of the hash. */
+    private static final int POWER;
+
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        POWER = p;
+    }
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(1, blocks) * 2) - 1;
+        int[] table = new int[mask + 1];
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            int slot = hash(base, off) & mask;
+            if (table[slot] == 0) {
+                table[slot] = off + 1;
+            }
+        }
+
+        int i = 0;
+        int pending = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (blocks > 0 && i + BLOCK <= target.length) {
+            int candidate = table[h & mask] - 1;
+            if (candidate >= 0 && matches(base, candidate, target, i)) {
+                int baseStart = candidate;
+                int targetStart = i;
+                while (baseStart > 0 && targetStart > pending
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                int baseEnd = candidate + BLOCK;
+                int targetEnd = i + BLOCK;
+                while (baseEnd < base.length && targetEnd < target.length
+                        && base[baseEnd] == target[targetEnd]) {
+                    baseEnd += 1;
+                    targetEnd += 1;
+                }
+                insert(out, target, pending, targetStart);
+                out.write(COPY);
+                Utils.writeVarint(out, baseStart);
+                Utils.writeVarint(out, baseEnd - baseStart);
+                i = targetEnd;
+                pending = targetEnd;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = h * PRIME - (target[i] & 0xFF) * POWER + (target[i + BLOCK] & 0xFF);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (Utils.readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) Utils.readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) Utils.readVarint(delta, pos);
+                int length = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(base, offset, result, n, length);
+                n += length;
+            } else {
+                int length = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, length);
+                pos[0] += length;
+                n += length;
+            }
+        }
+        if (n != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Append an instruction inserting TARGET[FROM..TO) to OUT, if that
+     *  range is not empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            Utils.writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at OFF. */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i += 1) {
+            h = h * PRIME + (data[i] & 0xFF);
+        }
+        return h;
+    }
+
+    /** Return true iff the BLOCK bytes of BASE at B equal those of TARGET
+     *  at T. */
+    private static boolean matches(byte[] base, int b, byte[] target, int t) {
+        return Arrays.equals(base, b, b + BLOCK, target, t, t + BLOCK);
+    }
+}
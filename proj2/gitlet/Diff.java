@@ -0,0 +1,349 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-by-line differences between two versions of a file.
+ *  Lines are first interned, so that each distinct line becomes a small
+ *  int and the algorithms only ever compare ints. Two algorithms are given.
+ *
+ *  Myers' algorithm finds a shortest edit script in time O((N+M)D), where D
+ *  is the number of lines inserted or deleted. It searches from both ends
+ *  at once for a "middle snake" of the edit script and recurses on the two
+ *  halves around it, so it needs only linear space.
+ *
+ *  Histogram diff anchors on the lines that occur least often in the old
+ *  version, takes the longest common run around such a line, and recurses
+ *  on each side of it; ranges with no uncommon line in common fall back to
+ *  Myers. It tends to line up blocks such as functions the way a reader
+ *  would, rather than on stray blank lines and braces.
+ *
+ *  The result is printed as a unified diff with three lines of context.
+ *
+ *  @author Sueray
+ */
+class Diff {
+
+    /** Lines of context printed around each change. */
+    private static final int CONTEXT = 3;
+    /** Lines occurring more often than this are not used as anchors by
+     *  histogram diff. */
+    private static final int MAX_OCCURRENCES = 64;
+    /** How many leading bytes are checked for a NUL to detect binary files. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** The interned old and new lines. */
+    private final int[] a, b;
+    /** Whether each old line is deleted and each new line inserted. */
+    private final boolean[] removed, added;
+    /** For histogram diff: the number of occurrences of each line id in
+     *  the current old range, its first occurrence there, and the next
+     *  occurrence after each old line. Reset after each use. */
+    private final int[] count, first, next;
+
+    /** Compare the interned lines A and B, whose ids are less than IDS. */
+    private Diff(int[] a, int[] b, int ids, boolean histogram) {
+        this.a = a;
+        this.b = b;
+        removed = new boolean[a.length];
+        added = new boolean[b.length];
+        if (histogram) {
+            count = new int[ids];
+            first = new int[ids];
+            next = new int[a.length];
+            histogram(0, a.length, 0, b.length);
+        } else {
+            count = first = next = null;
+            myers(0, a.length, 0, b.length);
+        }
+    }
+
+    /** Return a unified diff turning OLDTEXT, named OLDNAME, into NEWTEXT,
+     *  named NEWNAME, or "" if they are equal. A null text stands for a
+     *  file that does not exist, and is named /dev/null.
+     * @param histogram whether to use histogram diff rather than Myers
+     */
+    static String unified(String oldName, byte[] oldText, String newName,
+                          byte[] newText, boolean histogram) {
+        if (Arrays.equals(oldText, newText)) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("--- ").append(oldText == null ? "/dev/null" : "a/" + oldName).append('\n');
+        out.append("+++ ").append(newText == null ? "/dev/null" : "b/" + newName).append('\n');
+        oldText = oldText == null ? new byte[0] : oldText;
+        newText = newText == null ? new byte[0] : newText;
+        if (isBinary(oldText) || isBinary(newText)) {
+            return out.append("Binary files differ\n").toString();
+        }
+        List<String> oldLines = lines(oldText);
+        List<String> newLines = lines(newText);
+        HashMap<String, Integer> ids = new HashMap<>();
+        Diff diff = new Diff(intern(oldLines, ids), intern(newLines, ids),
+                ids.size(), histogram);
+        diff.print(oldLines, newLines, out);
+        return out.toString();
+    }
+
+    /** Mark the differences between A[ALO..AHI) and B[BLO..BHI) using
+     *  Myers' algorithm. */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(removed, aLo, aHi, true);
+            Arrays.fill(added, bLo, bHi, true);
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        myers(aLo, aLo + snake[0], bLo, bLo + snake[1]);
+        myers(aLo + snake[2], aHi, bLo + snake[3], bHi);
+    }
+
+    /** Return the middle snake of a shortest edit script turning
+     *  A[ALO..AHI) into B[BLO..BHI), as the offsets in A and B of its start
+     *  followed by those of its end. The script is searched for from the
+     *  front and from the back at once, one more edit at a time, until the
+     *  two searches overlap on some diagonal. The ranges must be non-empty
+     *  and differ in their first and last lines. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int off = max + 1;
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[off + k - 1] < forward[off + k + 1])
+                        ? forward[off + k + 1] : forward[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[off + k] = x;
+                int opposite = delta - k;
+                if (odd && opposite >= 1 - d && opposite <= d - 1
+                        && x + backward[off + opposite] >= n) {
+                    return new int[] {x0, y0, x, y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[off + k - 1] < backward[off + k + 1])
+                        ? backward[off + k + 1] : backward[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[off + k] = x;
+                int opposite = delta - k;
+                if (!odd && opposite >= -d && opposite <= d
+                        && x + forward[off + opposite] >= n) {
+                    return new int[] {n - x, m - y, n - x0, m - y0};
+                }
+            }
+        }
+        throw Utils.error("No middle snake found.");
+    }
+
+    /** Mark the differences between A[ALO..AHI) and B[BLO..BHI) using
+     *  histogram diff. */
+    private void histogram(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(removed, aLo, aHi, true);
+            Arrays.fill(added, bLo, bHi, true);
+            return;
+        }
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            next[i] = count[a[i]] == 0 ? -1 : first[a[i]];
+            first[a[i]] = i;
+            count[a[i]] += 1;
+        }
+        int bestCount = MAX_OCCURRENCES + 1;
+        int bestLength = 0;
+        int bestA = 0;
+        int bestB = 0;
+        for (int j = bLo; j < bHi; ) {
+            int c = count[b[j]];
+            if (c == 0 || c > bestCount) {
+                j += 1;
+                continue;
+            }
+            int furthest = j + 1;
+            for (int i = first[b[j]]; i >= 0; i = next[i]) {
+                int start = i;
+                int startB = j;
+                while (start > aLo && startB > bLo && a[start - 1] == b[startB - 1]) {
+                    start -= 1;
+                    startB -= 1;
+                }
+                int end = i + 1;
+                int endB = j + 1;
+                while (end < aHi && endB < bHi && a[end] == b[endB]) {
+                    end += 1;
+                    endB += 1;
+                }
+                int runCount = MAX_OCCURRENCES + 1;
+                for (int k = start; k < end; k += 1) {
+                    runCount = Math.min(runCount, count[a[k]]);
+                }
+                if (runCount < bestCount || (runCount == bestCount && end - start > bestLength)) {
+                    bestCount = runCount;
+                    bestLength = end - start;
+                    bestA = start;
+                    bestB = startB;
+                }
+                furthest = Math.max(furthest, endB);
+            }
+            j = furthest;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 0;
+        }
+        if (bestLength == 0) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+        histogram(aLo, bestA, bLo, bestB);
+        histogram(bestA + bestLength, aHi, bestB + bestLength, bHi);
+    }
+
+    /** Append the hunks of this diff between OLDLINES and NEWLINES to OUT. */
+    private void print(List<String> oldLines, List<String> newLines, StringBuilder out) {
+        int n = a.length;
+        int m = b.length;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if ((i < n && removed[i]) || (j < m && added[j])) {
+                int hunkA = Math.max(0, i - CONTEXT);
+                int hunkB = j - (i - hunkA);
+                int endA = i;
+                int endB = j;
+                while (true) {
+                    while ((endA < n && removed[endA]) || (endB < m && added[endB])) {
+                        if (endA < n && removed[endA]) {
+                            endA += 1;
+                        } else {
+                            endB += 1;
+                        }
+                    }
+                    int same = 0;
+                    while (endA + same < n && endB + same < m && !removed[endA + same]
+                            && !added[endB + same] && same <= 2 * CONTEXT) {
+                        same += 1;
+                    }
+                    boolean more = (endA + same < n && removed[endA + same])
+                            || (endB + same < m && added[endB + same]);
+                    if (!more || same > 2 * CONTEXT) {
+                        int tail = Math.min(same, CONTEXT);
+                        endA += tail;
+                        endB += tail;
+                        break;
+                    }
+                    endA += same;
+                    endB += same;
+                }
+                out.append("@@ -").append(range(hunkA, endA - hunkA))
+                        .append(" +").append(range(hunkB, endB - hunkB)).append(" @@\n");
+                int x = hunkA;
+                int y = hunkB;
+                while (x < endA || y < endB) {
+                    if (x < endA && removed[x]) {
+                        appendLine(out, '-', oldLines.get(x++));
+                    } else if (y < endB && added[y]) {
+                        appendLine(out, '+', newLines.get(y++));
+                    } else {
+                        appendLine(out, ' ', oldLines.get(x++));
+                        y += 1;
+                    }
+                }
+                i = endA;
+                j = endB;
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Return the range of LENGTH lines starting at the 0-based line START,
+     *  in the form used by hunk headers. */
+    private static String range(int start, int length) {
+        if (length == 0) {
+            return start + ",0";
+        }
+        return (start + 1) + (length == 1 ? "" : "," + length);
+    }
+
+    /** Append LINE to OUT, marked with PREFIX, noting a missing final
+     *  newline. */
+    private static void appendLine(StringBuilder out, char prefix, String line) {
+        out.append(prefix).append(line);
+        if (!line.endsWith("\n")) {
+            out.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Return the lines of TEXT, each with its newline, if any. */
+    private static List<String> lines(byte[] text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n') {
+                result.add(new String(text, start, i + 1 - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start < text.length) {
+            result.add(new String(text, start, text.length - start, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /** Return the ids of LINES, giving each distinct line a new id in IDS
+     *  the first time it is seen. */
+    private static int[] intern(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer id = ids.putIfAbsent(lines.get(i), ids.size());
+            result[i] = id == null ? ids.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Return true iff TEXT looks binary, holding a NUL near its start. */
+    private static boolean isBinary(byte[] text) {
+        for (int i = 0; i < Math.min(text.length, BINARY_PROBE); i += 1) {
+            if (text[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -4,11 +4,9 @@ import java.io.File;
 
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
- *  where each FILE is a file produced by Utils.writeObject (or any file
- *  containing a serialized object).  This will simply read FILE,
- *  deserialize it, and call the dump method on the resulting Object.
- *  The object must implement the gitlet.Dumpable interface for this
- *  to work.  For example, you might define your class like this:
+ *  where each FILE is a file produced by a Codec.  This will simply read FILE,
+ *  decode it, and call the dump method on the resulting Object, or
+ *  print it if it does not implement the gitlet.Dumpable interface.  For example, you might define your class like this:
  *
  *        import java.io.Serializable;
  *        import java.util.TreeMap;
@@ -29,13 +27,16 @@ import java.io.File;
  */
 public class DumpObj {
 
-    /** Deserialize and apply dump to the contents of each of the files
+    /** Decode and apply dump to the contents of each of the files
      *  in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
-            obj.dump();
+            Object obj = Codec.decodeAny(Utils.readContents(new File(fileName)));
+            if (obj instanceof Dumpable) {
+                ((Dumpable) obj).dump();
+            } else {
+                System.out.println(obj);
+            }
             System.out.println("---");
         }
     }
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A cache of the size, modification time and blob id of working files.
+ *  Kept in the binary file .gitlet/index, it lets status and add skip
+ *  reading a file whose size and modification time are unchanged since it
+ *  was last hashed, so that most files cost a stat rather than a full read.
+ *
+ *  A file changed within the same clock tick as the index was written could
+ *  keep its size and time, so entries whose time is not at least a second
+ *  older than the index itself are always rehashed.
+ *
+ *  An index may be used by several threads hashing files at once.
+ *
+ *  @author Sueray
+ */
+class Index {
+
+    /** The file holding the index. */
+    static final File INDEX_FILE = Utils.join(Repository.GITLET_DIR, "index");
+
+    /** Magic number opening the index file ("GIND"). */
+    private static final int MAGIC = 0x47494e44;
+    /** Format version of the index file. */
+    private static final int VERSION = 1;
+    /** How much older than the index an entry must be to be trusted. */
+    private static final long RACY_MILLIS = 1000;
+
+    /** The index last read or written by this process, which a Daemon
+     *  reuses while the file is unchanged, and the modification time and
+     *  length of the file at that point. */
+    private static Index last;
+    private static long lastModified;
+    private static long lastLength;
+
+    /** The cached entries, keyed by file name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** The time at which the index was last written. */
+    private long writtenAt;
+    /** True iff entries changed since the index was read. */
+    private boolean changed;
+
+    /** Return the index of this repository, or an empty one if none has
+     *  been written yet. */
+    static synchronized Index read() {
+        if (last != null && INDEX_FILE.lastModified() == lastModified
+                && INDEX_FILE.length() == lastLength) {
+            return last;
+        }
+        Index index = new Index();
+        if (!INDEX_FILE.isFile()) {
+            return index;
+        }
+        remember(index);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(INDEX_FILE.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return index;
+            }
+            index.writtenAt = in.readLong();
+            int count = in.readInt();
+            byte[] id = new byte[20];
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                in.readFully(id);
+                index.entries.put(name, new Entry(size, modified, Utils.toHex(id)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Write this index back to disk if it changed. */
+    synchronized void write() {
+        if (!changed) {
+            return;
+        }
+        writtenAt = System.currentTimeMillis();
+        File temp = new File(INDEX_FILE.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(writtenAt);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().modified);
+                out.write(Utils.fromHex(e.getValue().id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+        remember(this);
+    }
+
+    /** Note that INDEX matches the index file as it now is. */
+    private static synchronized void remember(Index index) {
+        last = index;
+        lastModified = INDEX_FILE.lastModified();
+        lastLength = INDEX_FILE.length();
+    }
+
+    /** Return the blob id of the contents of FILE, named NAME, rehashing
+     *  it only if it changed since it was last hashed. */
+    String hash(String name, File file) {
+        String id = cached(name, file);
+        if (id == null) {
+            long size = file.length();
+            long modified = file.lastModified();
+            id = Utils.sha1(file);
+            put(name, size, modified, id);
+        }
+        return id;
+    }
+
+    /** Save the contents of FILE, named NAME, in the object store unless
+     *  they are already there unchanged.
+     * @return the id of the blob holding FILE
+     */
+    String snapShot(String name, File file) {
+        String id = cached(name, file);
+        if (id == null || !ObjectStore.contains(id)) {
+            long size = file.length();
+            long modified = file.lastModified();
+            id = Blob.snapShot(file);
+            put(name, size, modified, id);
+        }
+        return id;
+    }
+
+    /** Record that FILE, named NAME, now holds the blob ID. */
+    synchronized void record(String name, File file, String id) {
+        put(name, file.length(), file.lastModified(), id);
+    }
+
+    /** Forget the file named NAME. */
+    synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            changed = true;
+        }
+    }
+
+    /** Return the cached blob id of FILE, named NAME, or null if FILE may
+     *  have changed since it was cached. */
+    private synchronized String cached(String name, File file) {
+        Entry e = entries.get(name);
+        if (e != null && e.size == file.length() && e.modified == file.lastModified()
+                && e.modified + RACY_MILLIS <= writtenAt) {
+            return e.id;
+        }
+        return null;
+    }
+
+    private synchronized void put(String name, long size, long modified, String id) {
+        entries.put(name, new Entry(size, modified, id));
+        changed = true;
+    }
+
+    /** What is known about one working file. */
+    private static class Entry {
+        /** The size of the file in bytes. */
+        private final long size;
+        /** The modification time of the file in milliseconds. */
+        private final long modified;
+        /** The id of the blob holding the file's contents. */
+        private final String id;
+
+        Entry(long size, long modified, String id) {
+            this.size = size;
+            this.modified = modified;
+            this.id = id;
+        }
+    }
+}
@@ -1,5 +1,14 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
  */
@@ -9,6 +18,17 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            if (args.length == 0 || !Daemon.forward(args)) {
+                run(args);
+            }
+        } catch (GitletException excp) {
+            report(excp);
+        }
+    }
+
+    /** Run the command given by ARGS. */
+    static void run(String[] args) {
         if (args.length == 0) {
             Utils.exitWithError("Please enter a command.");
         }
@@ -24,7 +44,11 @@ public class Main {
                 validateNumArgs("add", args, 2);
                 checkInitialization(repository);
                 String fileName = args[1];
-                repository.addAFile(fileName);
+                if (fileName.equals(".")) {
+                    repository.addAll();
+                } else {
+                    repository.addAFile(fileName);
+                }
                 break;
             case "commit":
                 validateNumArgs("commit", args, 2);
@@ -49,9 +73,8 @@ public class Main {
                 }
                 break;
             case "log":
-                validateNumArgs("log", args, 1);
                 checkInitialization(repository);
-                repository.log();
+                log(repository, args);
                 break;
             case "rm":
                 validateNumArgs("rm", args, 2);
@@ -64,14 +87,23 @@ public class Main {
                 repository.global_log();
                 break;
             case "find":
-                validateNumArgs("find", args, 2);
                 checkInitialization(repository);
-                repository.find(args[1]);
+                if (args.length == 3 && args[1].equals("--substring")) {
+                    repository.find(args[2], true);
+                } else if (args.length >= 3 && args[1].equals("--words")) {
+                    repository.findWords(Arrays.asList(args).subList(2, args.length));
+                } else {
+                    validateNumArgs("find", args, 2);
+                    repository.find(args[1], false);
+                }
                 break;
             case "status":
-                validateNumArgs("status", args, 1);
+                boolean renames = args.length == 2 && args[1].equals("--renames");
+                if (!renames) {
+                    validateNumArgs("status", args, 1);
+                }
                 checkInitialization(repository);
-                repository.status();
+                repository.status(renames);
                 break;
             case "branch":
                 validateNumArgs("branch", args, 2);
@@ -88,16 +120,177 @@ public class Main {
                 checkInitialization(repository);
                 repository.reset(args[1]);
                 break;
+            case "gc":
+                validateNumArgs("gc", args, 1);
+                checkInitialization(repository);
+                repository.gc();
+                break;
+            case "diff":
+                checkInitialization(repository);
+                List<String> commitIDs = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+                boolean histogram = commitIDs.remove("--histogram");
+                boolean noRenames = commitIDs.remove("--no-renames");
+                if (commitIDs.size() > 2) {
+                    throw new RuntimeException("Invalid number of arguments for: diff.");
+                }
+                repository.diff(commitIDs, histogram, !noRenames);
+                break;
+            case "daemon":
+                checkInitialization(repository);
+                if (args.length == 2 && args[1].equals("start")) {
+                    Daemon.start();
+                    break;
+                }
+                if (args.length == 2 && (args[1].equals("stop") || args[1].equals("stats"))) {
+                    Utils.exitWithError("No daemon is running.");
+                }
+                validateNumArgs("daemon", args, 1);
+                Daemon.serve();
+                break;
             case "merge":
                 validateNumArgs("merge", args, 2);
                 checkInitialization(repository);
                 repository.merge(args[1]);
                 break;
+            case "add-remote":
+                validateNumArgs("add-remote", args, 3);
+                checkInitialization(repository);
+                repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                validateNumArgs("rm-remote", args, 2);
+                checkInitialization(repository);
+                repository.rmRemote(args[1]);
+                break;
+            case "config":
+                checkInitialization(repository);
+                if (args.length == 3 && args[1].equals("--unset")) {
+                    repository.config(args[2], null, true);
+                } else {
+                    if (args.length != 3) {
+                        validateNumArgs("config", args, 2);
+                    }
+                    repository.config(args[1], args.length == 3 ? args[2] : null, false);
+                }
+                break;
+            case "push":
+                validateNumArgs("push", args, 3);
+                checkInitialization(repository);
+                repository.push(args[1], args[2]);
+                break;
+            case "fetch":
+                validateNumArgs("fetch", args, 3);
+                checkInitialization(repository);
+                repository.fetch(args[1], args[2]);
+                break;
+            case "pull":
+                validateNumArgs("pull", args, 3);
+                checkInitialization(repository);
+                repository.pull(args[1], args[2]);
+                break;
+            //the commands below are run in a remote by Remote
+            case "ls-refs":
+                validateNumArgs("ls-refs", args, 1);
+                checkInitialization(repository);
+                repository.lsRefs();
+                break;
+            case "upload-pack":
+                if (args.length < 3) {
+                    Utils.exitWithError("Incorrect operands.");
+                }
+                checkInitialization(repository);
+                repository.uploadPack(args[1], args[2],
+                        Arrays.asList(args).subList(3, args.length));
+                break;
+            case "update-ref":
+                validateNumArgs("update-ref", args, 4);
+                checkInitialization(repository);
+                repository.updateRef(args[1], args[2], args[3]);
+                break;
             default:
                 Utils.exitWithError("No command with that name exists.");
         }
     }
 
+    /** Run "log [-nN | -n N | --max-count=N] [--since=DATE] [--branch B]...
+     * [--all] [--renames]" on REPOSITORY, where ARGS are the words of the command.
+     * DATE is yyyy-MM-dd, optionally followed by HH:mm or HH:mm:ss, in
+     * local time; an option's value may also be given as the next word. */
+    private static void log(Repository repository, String[] args) {
+        int maxCount = -1;
+        long since = Long.MIN_VALUE;
+        List<String> branchNames = new ArrayList<>();
+        boolean all = false;
+        boolean renames = false;
+        for (int i = 1; i < args.length; i += 1) {
+            String option = args[i];
+            String value = null;
+            if (option.startsWith("--") && option.contains("=")) {
+                value = option.substring(option.indexOf('=') + 1);
+                option = option.substring(0, option.indexOf('='));
+            }
+            if (option.startsWith("-n") && option.length() > 2) {
+                value = option.substring(2);
+                option = "-n";
+            }
+            if (option.equals("--all")) {
+                all = true;
+                continue;
+            }
+            if (option.equals("--renames")) {
+                renames = true;
+                continue;
+            }
+            if (value == null) {
+                if (i + 1 == args.length) {
+                    Utils.exitWithError("Incorrect operands.");
+                }
+                value = args[++i];
+            }
+            try {
+                switch (option) {
+                    case "-n":
+                    case "--max-count":
+                        maxCount = Integer.parseInt(value);
+                        break;
+                    case "--since":
+                        since = parseDate(value);
+                        break;
+                    case "--branch":
+                        branchNames.add(value);
+                        break;
+                    default:
+                        Utils.exitWithError("Incorrect operands.");
+                }
+            } catch (NumberFormatException | DateTimeParseException excp) {
+                Utils.exitWithError("Incorrect operands.");
+            }
+        }
+        repository.log(maxCount, since, branchNames, all, renames);
+    }
+
+    /** Return the time in milliseconds given by DATE, in local time. */
+    private static long parseDate(String date) {
+        String[] patterns = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm"};
+        for (String pattern : patterns) {
+            try {
+                return LocalDateTime.parse(date, DateTimeFormatter.ofPattern(pattern))
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException excp) {
+                continue;
+            }
+        }
+        return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+    }
+
+    /** Print the message of EXCP, which ended a command. */
+    static void report(GitletException excp) {
+        if (excp.getMessage() != null && !excp.getMessage().equals("")) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
     /** Check whether the .gitlet Repo exists in the CWD. */
     public static void checkInitialization(Repository repo) {
         if (!repo.gitletExist()) {
@@ -0,0 +1,397 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/** An inverted index of commit messages, so that find need not read every
+ *  commit. It answers three kinds of query: commits whose message is
+ *  exactly a given string, commits whose message contains a string, and
+ *  commits whose message contains every one of some words.
+ *
+ *  Every trigram (three consecutive UTF-8 bytes) of each message, and every
+ *  word of it in lower case, is mapped to the list of commits using it. A
+ *  string can only occur in messages holding all of its trigrams, and a
+ *  set of words only in messages holding all of them, so a query reads and
+ *  intersects a few lists, then checks just the commits left over.
+ *
+ *  The index is kept in two files. .gitlet/find-index is an immutable
+ *  segment mapped into memory: a header, the commits sorted by UID with
+ *  the position of their messages, two sorted tables giving for each
+ *  trigram and each word hash the position of its list, the lists of
+ *  commit positions as varint gaps, and the messages. Each commit made
+ *  since the segment was written is appended to .gitlet/find-log, which
+ *  queries scan. When the log grows past LOG_LIMIT, or when gc runs, the
+ *  two are merged into a new segment.
+ *
+ *  @author Sueray
+ */
+class MessageIndex {
+
+    /** The file holding the segment. */
+    static final File SEGMENT_FILE = Utils.join(Repository.GITLET_DIR, "find-index");
+    /** The file holding commits made since the segment was written. */
+    static final File LOG_FILE = Utils.join(Repository.GITLET_DIR, "find-log");
+
+    /** Magic number opening the segment ("GFND"). */
+    private static final int MAGIC = 0x47464e44;
+    /** Format version of the segment. */
+    private static final int VERSION = 1;
+    /** Size in bytes of the segment header. */
+    private static final int HEADER_BYTES = 28;
+    /** Size in bytes of an entry of the commit table. */
+    private static final int COMMIT_BYTES = 28;
+    /** Size in bytes of an entry of the trigram and word tables. */
+    private static final int KEY_BYTES = 12;
+    /** Size in bytes of the log at which it is merged into the segment. */
+    private static final int LOG_LIMIT = 64 * 1024;
+
+    /** The mapped segment. */
+    private final ByteBuffer segment;
+    /** The number of commits in the segment. */
+    private final int count;
+    /** The number of trigrams and of words in the segment. */
+    private final int grams, words;
+    /** Where the word table, the lists and the messages start. */
+    private final int wordsStart, listsStart, messagesStart;
+    /** The commits in the log, mapped to their messages. */
+    private final TreeMap<String, String> logged;
+
+    /** The index as it is on disk, building the segment if there is none. */
+    private MessageIndex() {
+        if (!SEGMENT_FILE.isFile()) {
+            rebuild();
+        }
+        try (FileChannel channel = FileChannel.open(SEGMENT_FILE.toPath())) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+            throw Utils.error("Unknown find index format.");
+        }
+        count = segment.getInt(8);
+        grams = segment.getInt(12);
+        words = segment.getInt(16);
+        listsStart = segment.getInt(20);
+        messagesStart = segment.getInt(24);
+        wordsStart = HEADER_BYTES + count * COMMIT_BYTES + grams * KEY_BYTES;
+        logged = readLog();
+    }
+
+    /** Add the commit UID with the given MESSAGE to the index. */
+    static void add(String uid, String message) {
+        if (!SEGMENT_FILE.isFile()) {
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.writeBytes(Utils.fromHex(uid));
+        byte[] utf8 = message.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(record, utf8.length);
+        record.writeBytes(utf8);
+        try (FileChannel log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            if (log.size() < LOG_LIMIT) {
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        TreeMap<String, String> all = new MessageIndex().entries();
+        write(all);
+    }
+
+    /** Rewrite the index from every stored commit. */
+    static void rebuild() {
+        TreeMap<String, String> all = new TreeMap<>();
+        for (String uid : ObjectStore.list(ObjectStore.COMMIT)) {
+            all.put(uid, Commit.load(uid).getLog());
+        }
+        write(all);
+    }
+
+    /** Return the UIDs of the commits whose message is MESSAGE. */
+    static TreeSet<String> exact(String message) {
+        MessageIndex index = new MessageIndex();
+        return index.search(index.gramCandidates(message), message::equals);
+    }
+
+    /** Return the UIDs of the commits whose message contains TEXT. */
+    static TreeSet<String> containing(String text) {
+        MessageIndex index = new MessageIndex();
+        return index.search(index.gramCandidates(text), m -> m.contains(text));
+    }
+
+    /** Return the UIDs of the commits whose message holds each of TERMS as
+     *  a word, ignoring case. */
+    static TreeSet<String> withWords(List<String> terms) {
+        MessageIndex index = new MessageIndex();
+        Set<String> wanted = new HashSet<>();
+        for (String term : terms) {
+            wanted.addAll(words(term));
+        }
+        if (wanted.isEmpty()) {
+            return new TreeSet<>();
+        }
+        int[] candidates = null;
+        for (String word : wanted) {
+            candidates = intersect(candidates,
+                    index.list(index.wordsStart, index.words, word.hashCode()));
+        }
+        return index.search(candidates, m -> words(m).containsAll(wanted));
+    }
+
+    /** Return the UIDs of the commits in the segment at the positions
+     *  CANDIDATES (all of them if null), and in the log, whose messages
+     *  satisfy MATCHES. */
+    private TreeSet<String> search(int[] candidates, Predicate<String> matches) {
+        TreeSet<String> result = new TreeSet<>();
+        int n = candidates == null ? count : candidates.length;
+        for (int k = 0; k < n; k += 1) {
+            int i = candidates == null ? k : candidates[k];
+            if (matches.test(messageAt(i))) {
+                result.add(idAt(i));
+            }
+        }
+        for (String uid : logged.keySet()) {
+            if (matches.test(logged.get(uid))) {
+                result.add(uid);
+            }
+        }
+        return result;
+    }
+
+    /** Return the positions of the commits whose messages hold every
+     *  trigram of TEXT, or null for all commits if TEXT is too short to
+     *  have any. */
+    private int[] gramCandidates(String text) {
+        int[] candidates = null;
+        for (int gram : trigrams(text)) {
+            candidates = intersect(candidates, list(HEADER_BYTES + count * COMMIT_BYTES,
+                    grams, gram));
+        }
+        return candidates;
+    }
+
+    /** Return the list for KEY in the table of N entries starting at
+     *  START, or an empty list if KEY is not there. */
+    private int[] list(int start, int n, int key) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int found = segment.getInt(start + mid * KEY_BYTES);
+            if (found < key) {
+                lo = mid + 1;
+            } else if (found > key) {
+                hi = mid - 1;
+            } else {
+                int offset = segment.getInt(start + mid * KEY_BYTES + 4);
+                int length = segment.getInt(start + mid * KEY_BYTES + 8);
+                byte[] bytes = new byte[length];
+                segment.get(listsStart + offset, bytes);
+                int[] positions = new int[length];
+                int size = 0;
+                int[] pos = {0};
+                int position = 0;
+                while (pos[0] < length) {
+                    position += (int) Utils.readVarint(bytes, pos);
+                    positions[size++] = position;
+                }
+                return Arrays.copyOf(positions, size);
+            }
+        }
+        return new int[0];
+    }
+
+    /** Return the UID of the I-th commit of the segment. */
+    private String idAt(int i) {
+        byte[] id = new byte[20];
+        segment.get(HEADER_BYTES + i * COMMIT_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Return the message of the I-th commit of the segment. */
+    private String messageAt(int i) {
+        int offset = segment.getInt(HEADER_BYTES + i * COMMIT_BYTES + 20);
+        int length = segment.getInt(HEADER_BYTES + i * COMMIT_BYTES + 24);
+        byte[] message = new byte[length];
+        segment.get(messagesStart + offset, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /** Return every commit in the index, mapped to its message. */
+    private TreeMap<String, String> entries() {
+        TreeMap<String, String> all = new TreeMap<>(logged);
+        for (int i = 0; i < count; i += 1) {
+            all.put(idAt(i), messageAt(i));
+        }
+        return all;
+    }
+
+    /** Return the commits in the log, mapped to their messages. */
+    private static TreeMap<String, String> readLog() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (!LOG_FILE.isFile()) {
+            return result;
+        }
+        byte[] log = Utils.readContents(LOG_FILE);
+        int[] pos = {0};
+        try {
+            while (pos[0] + 20 < log.length) {
+                String uid = Utils.toHex(log, pos[0], 20);
+                pos[0] += 20;
+                int length = (int) Utils.readVarint(log, pos);
+                if (pos[0] + length > log.length) {
+                    break;
+                }
+                result.put(uid, new String(log, pos[0], length, StandardCharsets.UTF_8));
+                pos[0] += length;
+            }
+        } catch (ArrayIndexOutOfBoundsException excp) {
+            return result;
+        }
+        return result;
+    }
+
+    /** Write a segment holding the commits of ALL, mapped to their messages,
+     *  and empty the log. */
+    private static void write(TreeMap<String, String> all) {
+        int n = all.size();
+        List<byte[]> messages = new ArrayList<>(n);
+        long[] gramPairs = new long[16];
+        long[] wordPairs = new long[16];
+        int gramCount = 0;
+        int wordCount = 0;
+        int i = 0;
+        for (String message : all.values()) {
+            messages.add(message.getBytes(StandardCharsets.UTF_8));
+            for (int gram : trigrams(message)) {
+                if (gramCount == gramPairs.length) {
+                    gramPairs = Arrays.copyOf(gramPairs, 2 * gramCount);
+                }
+                gramPairs[gramCount++] = pair(gram, i);
+            }
+            for (String word : words(message)) {
+                if (wordCount == wordPairs.length) {
+                    wordPairs = Arrays.copyOf(wordPairs, 2 * wordCount);
+                }
+                wordPairs[wordCount++] = pair(word.hashCode(), i);
+            }
+            i += 1;
+        }
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        ByteBuffer gramTable = table(gramPairs, gramCount, lists);
+        ByteBuffer wordTable = table(wordPairs, wordCount, lists);
+
+        int listsStart = HEADER_BYTES + n * COMMIT_BYTES + gramTable.limit() + wordTable.limit();
+        int messagesStart = listsStart + lists.size();
+        int total = messagesStart;
+        for (byte[] m : messages) {
+            total += m.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(total);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n)
+                .putInt(gramTable.limit() / KEY_BYTES).putInt(wordTable.limit() / KEY_BYTES)
+                .putInt(listsStart).putInt(messagesStart);
+        int offset = 0;
+        i = 0;
+        for (String uid : all.keySet()) {
+            out.put(Utils.fromHex(uid)).putInt(offset).putInt(messages.get(i).length);
+            offset += messages.get(i).length;
+            i += 1;
+        }
+        out.put(gramTable).put(wordTable).put(lists.toByteArray());
+        for (byte[] m : messages) {
+            out.put(m);
+        }
+        Utils.writeAtomically(SEGMENT_FILE, out.array());
+        LOG_FILE.delete();
+    }
+
+    /** Return the table of the first N (key, position) PAIRS, appending
+     *  the list of positions of each key to LISTS. */
+    private static ByteBuffer table(long[] pairs, int n, ByteArrayOutputStream lists) {
+        Arrays.sort(pairs, 0, n);
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < n) {
+            int key = (int) (pairs[i] >> 32);
+            int start = lists.size();
+            int previous = 0;
+            for (; i < n && (int) (pairs[i] >> 32) == key; i += 1) {
+                int position = (int) pairs[i];
+                Utils.writeVarint(lists, position - previous);
+                previous = position;
+            }
+            table.writeBytes(ByteBuffer.allocate(KEY_BYTES).putInt(key).putInt(start)
+                    .putInt(lists.size() - start).array());
+        }
+        return ByteBuffer.wrap(table.toByteArray());
+    }
+
+    /** Return KEY and POSITION packed into one long that sorts by KEY. */
+    private static long pair(int key, int position) {
+        return ((long) key << 32) | position;
+    }
+
+    /** Return the distinct trigrams of the UTF-8 encoding of TEXT. */
+    private static Set<Integer> trigrams(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        Set<Integer> result = new HashSet<>();
+        for (int i = 0; i + 3 <= utf8.length; i += 1) {
+            result.add((utf8[i] & 0xFF) << 16 | (utf8[i + 1] & 0xFF) << 8 | (utf8[i + 2] & 0xFF));
+        }
+        return result;
+    }
+
+    /** Return the distinct words of TEXT, in lower case. */
+    private static Set<String> words(String text) {
+        Set<String> result = new HashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Return the positions in both the sorted lists A and B, treating a
+     *  null A as holding every position. */
+    private static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
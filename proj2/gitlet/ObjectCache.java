@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of decoded objects (commits, trees and the contents of blobs)
+ *  keyed by id and shared by every command run in this process, so a
+ *  Daemon decodes each object once however many commands use it.
+ *
+ *  The cache is bounded by an estimate of the bytes its objects take in
+ *  memory rather than by their number, as one tree of a large directory
+ *  can outweigh thousands of commits. When it is full, the objects used
+ *  least recently are dropped first. An object larger than a sixteenth of
+ *  the cache is not kept, so that one large file cannot flush everything
+ *  else. Objects are never changed once stored, so a cached object never
+ *  needs to be invalidated.
+ *
+ *  @author Sueray
+ */
+class ObjectCache {
+
+    /** The cache used by all commands. */
+    static final ObjectCache SHARED = new ObjectCache(64L << 20);
+
+    /** Estimated size in bytes of a cached object apart from its fields. */
+    static final int OBJECT_BYTES = 64;
+    /** Estimated size in bytes of one entry of a map from names to ids,
+     *  apart from the characters of its name. */
+    static final int ENTRY_BYTES = 150;
+
+    /** The most bytes the cached objects may take. */
+    private final long capacity;
+    /** The cached objects, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The bytes the cached objects take. */
+    private long size;
+    /** The number of lookups that found their object. */
+    private long hits;
+    /** The number of lookups that did not. */
+    private long misses;
+    /** The number of objects dropped to make room. */
+    private long evictions;
+
+    /** A cache holding objects of at most CAPACITY bytes in all. */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Return the cached object ID if it is of the class KIND, or null. */
+    synchronized <T> T get(String id, Class<T> kind) {
+        Entry entry = entries.get(id);
+        if (entry == null || !kind.isInstance(entry.value)) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return kind.cast(entry.value);
+    }
+
+    /** Cache VALUE as the object ID, estimated to take BYTES bytes, or
+     *  update the size of the object ID if it is already cached. */
+    synchronized void put(String id, Object value, long bytes) {
+        if (bytes > capacity / 16) {
+            Entry old = entries.remove(id);
+            if (old != null) {
+                size -= old.bytes;
+            }
+            return;
+        }
+        Entry old = entries.put(id, new Entry(value, bytes));
+        size += bytes - (old == null ? 0 : old.bytes);
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (size > capacity) {
+            size -= oldest.next().bytes;
+            oldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Return the estimated size in bytes of MAP, a map from names to
+     *  ids. */
+    static long sizeOf(Map<String, String> map) {
+        long bytes = OBJECT_BYTES;
+        for (String name : map.keySet()) {
+            bytes += ENTRY_BYTES + 2L * name.length();
+        }
+        return bytes;
+    }
+
+    /** Return a line describing the use of this cache. */
+    synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("Object cache: %d hits, %d misses (%d%% hit), %d evictions, "
+                        + "%d objects in %d of %d bytes.", hits, misses,
+                lookups == 0 ? 0 : 100 * hits / lookups, evictions, entries.size(), size, capacity);
+    }
+
+    /** One cached object. */
+    private static class Entry {
+        /** The object. */
+        private final Object value;
+        /** The bytes it is estimated to take. */
+        private final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
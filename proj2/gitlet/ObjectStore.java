@@ -0,0 +1,592 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The content-addressed object store of a gitlet repository.
+ *  Every object lives under .gitlet/objects and is named by the SHA-1 of its
+ *  contents (a commit by its UID), so identical contents are written only
+ *  once no matter how many files or commits refer to them.
+ *
+ *  New objects are written loose: one file per object, spread over 256
+ *  subdirectories keyed by the first two hex digits of the id, holding a
+ *  one-byte type tag followed by the raw contents. Running gc moves them
+ *  all into a single compressed Pack, where a blob may be stored as a Delta
+ *  against another version of the same file, and drops every object not
+ *  marked as reachable in a set of Marks.
+ *
+ *  @author Sueray
+ */
+class ObjectStore {
+
+    /** The directory holding all objects. */
+    static final File OBJECTS_DIR = Utils.join(Repository.GITLET_DIR, "objects");
+
+    /** Type tag of an object holding the contents of a file. */
+    static final byte BLOB = 1;
+    /** Type tag of an object holding a serialized Commit. */
+    static final byte COMMIT = 2;
+    /** Type tag of an object holding a Tree. */
+    static final byte TREE = 3;
+    /** Type tag of an object holding the list of Chunks of a large file,
+     *  which stands in for the file's blob. */
+    static final byte CHUNKED = 4;
+    /** The longest chain of deltas a pack may need to rebuild one object. */
+    static final int MAX_DELTA_DEPTH = 16;
+
+    /** Loose object files not yet known to be on disk. Objects may be
+     *  written by several threads at once. */
+    private static final Set<File> UNSYNCED = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    /** Create the objects directory of a new repository. */
+    static void init() {
+        OBJECTS_DIR.mkdir();
+    }
+
+    /** Return true iff an object with the given id is in the store. */
+    static boolean contains(String id) {
+        if (looseFile(id).isFile()) {
+            return true;
+        }
+        for (Pack pack : Pack.all()) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Save CONTENTS of the given TYPE under ID, unless it is already stored.
+     *  ID must be the SHA-1 of CONTENTS, or the UID of a commit. */
+    static void put(byte type, String id, byte[] contents) {
+        if (contains(id)) {
+            return;
+        }
+        File temp = tempFile();
+        Utils.writeContents(temp, new byte[] {type}, contents);
+        install(temp, id);
+    }
+
+    /** Save the contents of FILE as an object of the given TYPE. The file
+     *  is read, hashed and copied into the store in fixed-size chunks, so
+     *  memory use does not depend on its size.
+     * @return the id of the object
+     */
+    static String putFile(byte type, File file) {
+        MessageDigest md = Utils.sha1Digest();
+        File temp = tempFile();
+        try (FileChannel in = FileChannel.open(file.toPath());
+             FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(new byte[] {type}));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Utils.CHUNK_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.toHex(md.digest());
+        if (contains(id)) {
+            temp.delete();
+        } else {
+            install(temp, id);
+        }
+        return id;
+    }
+
+    /** Note that the loose objects with the given IDS, which may have been
+     *  written by an earlier command, must be made durable by the next
+     *  sync. Ids of packed objects are ignored. */
+    static void syncLater(Collection<String> ids) {
+        for (String id : ids) {
+            File file = looseFile(id);
+            if (file.isFile()) {
+                UNSYNCED.add(file);
+            }
+        }
+    }
+
+    /** Force every loose object written by this command, or named in
+     *  syncLater, to disk in one batch. */
+    static void sync() {
+        Utils.sync(UNSYNCED);
+        UNSYNCED.clear();
+    }
+
+    /** Replace the contents of DEST with those of the object with the given
+     *  ID and TYPE without holding them on the heap. A loose object is
+     *  copied by the kernel with transferTo, and a packed one is inflated
+     *  straight into DEST.
+     * @return false if there is no such object, leaving DEST alone
+     */
+    static boolean copyTo(String id, byte type, File dest) {
+        if (type(id) != type) {
+            return false;
+        }
+        try (FileChannel out = Utils.openForWrite(dest)) {
+            return copyTo(id, type, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the contents of the object with the given ID and TYPE to OUT
+     *  at its position, as copyTo does to a file.
+     * @return false if there is no such object, writing nothing
+     */
+    static boolean copyTo(String id, byte type, FileChannel out) {
+        File file = looseFile(id);
+        if (file.isFile()) {
+            try (FileChannel in = FileChannel.open(file.toPath())) {
+                ByteBuffer stored = ByteBuffer.allocate(1);
+                if (in.read(stored, 0) != 1 || stored.get(0) != type) {
+                    return false;
+                }
+                long size = in.size();
+                for (long pos = 1; pos < size; ) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+                return true;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Pack pack : Pack.all()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                if (pack.typeAt(i) != type) {
+                    return false;
+                }
+                pack.copyTo(i, out);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the contents of the object with the given ID and TYPE, or
+     *  null if there is no such object. */
+    static byte[] get(String id, byte type) {
+        File file = looseFile(id);
+        if (file.isFile()) {
+            byte[] stored = Utils.readContents(file);
+            return stored[0] == type ? Arrays.copyOfRange(stored, 1, stored.length) : null;
+        }
+        for (Pack pack : Pack.all()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return pack.typeAt(i) == type ? pack.read(i) : null;
+            }
+        }
+        return null;
+    }
+
+    /** Return the ids of all stored objects of the given TYPE, in order. */
+    static List<String> list(byte type) {
+        HashSet<String> result = new HashSet<>();
+        for (Pack pack : Pack.all()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.typeAt(i) == type) {
+                    result.add(pack.idAt(i));
+                }
+            }
+        }
+        for (String id : looseIds()) {
+            if (looseType(id) == type) {
+                result.add(id);
+            }
+        }
+        List<String> sorted = new ArrayList<>(result);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /** Return the ids of all stored objects of the given TYPE that start
+     *  with PREFIX, in order. PREFIX may be any number of hexadecimal
+     *  digits; packs are searched through their sorted indices and loose
+     *  objects through the subdirectories named by their first two digits. */
+    static List<String> findPrefix(String prefix, byte type) {
+        TreeSet<String> result = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return new ArrayList<>();
+        }
+        for (Pack pack : Pack.all()) {
+            for (String id : pack.findPrefix(prefix)) {
+                if (pack.typeAt(pack.find(id)) == type) {
+                    result.add(id);
+                }
+            }
+        }
+        String[] dirs = OBJECTS_DIR.list();
+        if (dirs != null) {
+            for (String dir : dirs) {
+                if (dir.length() != 2 || !(dir.startsWith(prefix) || prefix.startsWith(dir))) {
+                    continue;
+                }
+                for (String rest : Utils.plainFilenamesIn(Utils.join(OBJECTS_DIR, dir))) {
+                    String id = dir + rest;
+                    if (id.startsWith(prefix) && looseType(id) == type) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Move every object marked in KEEP, whether loose or in one of the
+     *  packs KEEP numbered, into one new pack, and delete all the others
+     *  along with any temporary files left by interrupted commands. An old
+     *  pack holding just the objects kept is the new pack, and is kept.
+     * @param bases maps a blob to another blob it may be stored as a delta
+     *              against; these links must not form cycles
+     * @return the number of bytes the deleted objects and temporary files
+     *         took on disk
+     */
+    static long repack(Marks keep, Map<String, String> bases) {
+        List<Pack> oldPacks = keep.packs;
+        List<String> loose = looseIds();
+        List<File> temps = tempFiles();
+        if (loose.isEmpty() && oldPacks.size() <= 1 && temps.isEmpty()
+                && keep.marked.cardinality() == keep.starts[oldPacks.size()]) {
+            return 0;
+        }
+        long reclaimed = 0;
+        for (File temp : temps) {
+            reclaimed += temp.length();
+        }
+        HashMap<String, String> usable = limitDeltaDepth(bases);
+        Pack.Writer writer = new Pack.Writer();
+        for (int p = 0; p < oldPacks.size(); p += 1) {
+            Pack pack = oldPacks.get(p);
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (keep.marked.get(keep.starts[p] + i)) {
+                    addToPack(writer, pack.idAt(i), pack.typeAt(i), pack.read(i), usable);
+                } else {
+                    reclaimed += pack.storedSize(i);
+                }
+            }
+        }
+        for (String id : loose) {
+            Integer n = keep.loose.get(id);
+            if (n != null && keep.marked.get(n)) {
+                byte[] stored = Utils.readContents(looseFile(id));
+                addToPack(writer, id, stored[0],
+                        Arrays.copyOfRange(stored, 1, stored.length), usable);
+            } else {
+                reclaimed += looseFile(id).length();
+            }
+        }
+        Pack written = writer.finish();
+        for (Pack pack : oldPacks) {
+            if (!pack.name().equals(written.name())) {
+                pack.delete();
+            }
+        }
+        for (String id : loose) {
+            File file = looseFile(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        for (File temp : temps) {
+            temp.delete();
+        }
+        UNSYNCED.clear();
+        Pack.reload();
+        return reclaimed;
+    }
+
+    /** Write the objects IDS, of any type, into a new pack in DIR, which
+     *  may be the pack directory of another repository. Objects are sent
+     *  whole, as the receiver may lack the bases of their deltas.
+     * @return the new pack
+     */
+    static Pack packObjects(Collection<String> ids, File dir) {
+        Pack.Writer writer = new Pack.Writer(dir);
+        for (String id : ids) {
+            File file = looseFile(id);
+            if (file.isFile()) {
+                byte[] stored = Utils.readContents(file);
+                writer.add(id, stored[0], Arrays.copyOfRange(stored, 1, stored.length));
+                continue;
+            }
+            boolean found = false;
+            for (Pack pack : Pack.all()) {
+                int i = pack.find(id);
+                if (i >= 0) {
+                    writer.add(id, pack.typeAt(i), pack.read(i));
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw Utils.error("Missing object %s.", id);
+            }
+        }
+        return writer.finish();
+    }
+
+    /** Add the object ID of the given TYPE and CONTENTS to WRITER, as a
+     *  delta against its entry in BASES if that saves at least half of its
+     *  size. */
+    private static void addToPack(Pack.Writer writer, String id, byte type,
+                                  byte[] contents, Map<String, String> bases) {
+        String base = type == BLOB ? bases.get(id) : null;
+        if (base != null) {
+            byte[] baseContents = get(base, BLOB);
+            if (baseContents != null) {
+                byte[] delta = Delta.create(baseContents, contents);
+                if (delta.length < contents.length / 2) {
+                    writer.addDelta(id, type, base, delta);
+                    return;
+                }
+            }
+        }
+        writer.add(id, type, contents);
+    }
+
+    /** Return the links of BASES that are present in the store, dropping
+     *  links so that no chain is longer than MAX_DELTA_DEPTH. */
+    private static HashMap<String, String> limitDeltaDepth(Map<String, String> bases) {
+        HashMap<String, String> result = new HashMap<>();
+        for (Map.Entry<String, String> link : bases.entrySet()) {
+            if (contains(link.getKey()) && contains(link.getValue())) {
+                result.put(link.getKey(), link.getValue());
+            }
+        }
+        HashMap<String, Integer> depth = new HashMap<>();
+        for (String id : result.keySet().toArray(new String[0])) {
+            ArrayList<String> chain = new ArrayList<>();
+            String x = id;
+            while (x != null && !depth.containsKey(x)) {
+                chain.add(x);
+                x = result.get(x);
+            }
+            int d = x == null ? -1 : depth.get(x);
+            for (int i = chain.size() - 1; i >= 0; i -= 1) {
+                d += 1;
+                if (d > MAX_DELTA_DEPTH) {
+                    result.remove(chain.get(i));
+                    d = 0;
+                }
+                depth.put(chain.get(i), d);
+            }
+        }
+        return result;
+    }
+
+    /** Return the file where the loose object with the given ID is kept. */
+    static File looseFile(String id) {
+        return Utils.join(OBJECTS_DIR, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Return the ids of all loose objects. */
+    private static List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        String[] dirs = OBJECTS_DIR.list();
+        if (dirs == null) {
+            return result;
+        }
+        Arrays.sort(dirs);
+        for (String dir : dirs) {
+            if (dir.length() != 2) {
+                continue;
+            }
+            for (String rest : Utils.plainFilenamesIn(Utils.join(OBJECTS_DIR, dir))) {
+                result.add(dir + rest);
+            }
+        }
+        return result;
+    }
+
+    /** Return the temporary files in the object store and its pack
+     *  directory. */
+    private static List<File> tempFiles() {
+        List<File> result = new ArrayList<>();
+        for (File dir : new File[] {OBJECTS_DIR, Pack.PACK_DIR}) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.endsWith(".tmp")) {
+                    result.add(Utils.join(dir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return a new, empty temporary file in the object store. */
+    private static File tempFile() {
+        try {
+            return File.createTempFile("object", ".tmp", OBJECTS_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Move the complete object TEMP into place as the loose object ID, so
+     *  that a reader never sees a partly written object. */
+    private static void install(File temp, String id) {
+        File dest = looseFile(id);
+        dest.getParentFile().mkdir();
+        try {
+            Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        UNSYNCED.add(dest);
+    }
+
+    /** Return the type of the object with the given ID, or 0 if there is
+     *  no such object. */
+    static byte type(String id) {
+        if (looseFile(id).isFile()) {
+            return looseType(id);
+        }
+        for (Pack pack : Pack.all()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return pack.typeAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /** Return the type of the loose object with the given ID. */
+    private static byte looseType(String id) {
+        try (FileInputStream in = new FileInputStream(looseFile(id))) {
+            return (byte) in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A set of stored objects, such as those reachable from the branches,
+     *  kept as one bit per object. The objects of the packs are numbered
+     *  pack by pack in the order of their ids, so finding the bit of a
+     *  packed object needs only the pack's index; a loose object is
+     *  numbered after them when it is first marked. */
+    static class Marks {
+        /** The packs whose objects are numbered. */
+        private final List<Pack> packs = new ArrayList<>(Pack.all());
+        /** The number of the first object of each pack, followed by the
+         *  total number of packed objects. */
+        private final int[] starts = new int[packs.size() + 1];
+        /** The numbers of the loose objects marked so far. */
+        private final HashMap<String, Integer> loose = new HashMap<>();
+        /** The bits of the marked objects. */
+        private final BitSet marked = new BitSet();
+
+        Marks() {
+            for (int p = 0; p < packs.size(); p += 1) {
+                starts[p + 1] = starts[p] + packs.get(p).size();
+            }
+        }
+
+        /** Return the packs whose objects are numbered. */
+        List<Pack> packs() {
+            return packs;
+        }
+
+        /** Mark the objects of the P-th pack whose positions in it are set
+         *  in BITS. */
+        void markAll(int p, BitSet bits) {
+            if (starts[p] == 0) {
+                marked.or(bits);
+                return;
+            }
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                marked.set(starts[p] + i);
+            }
+        }
+
+        /** Return the marked objects of the P-th pack, by position in it. */
+        BitSet marked(int p) {
+            return marked.get(starts[p], starts[p + 1]);
+        }
+
+        /** Return the ids of the objects marked here but not in OTHER,
+         *  which must number the same packs. */
+        List<String> minus(Marks other) {
+            if (!packs.equals(other.packs)) {
+                throw Utils.error("Marks of different packs.");
+            }
+            BitSet only = marked.get(0, starts[packs.size()]);
+            only.andNot(other.marked);
+            List<String> result = new ArrayList<>();
+            int p = 0;
+            for (int n = only.nextSetBit(0); n >= 0; n = only.nextSetBit(n + 1)) {
+                while (n >= starts[p + 1]) {
+                    p += 1;
+                }
+                result.add(packs.get(p).idAt(n - starts[p]));
+            }
+            for (String id : loose.keySet()) {
+                if (!other.loose.containsKey(id)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+
+        /** Mark the object ID.
+         * @return true if it is stored and was not marked before
+         */
+        boolean mark(String id) {
+            int n = number(id);
+            if (n < 0 || marked.get(n)) {
+                return false;
+            }
+            marked.set(n);
+            return true;
+        }
+
+        /** Return the number of the object ID, or -1 if it is not stored.
+         *  An object kept in several places is numbered by the first. */
+        private int number(String id) {
+            for (int p = 0; p < packs.size(); p += 1) {
+                int i = packs.get(p).find(id);
+                if (i >= 0) {
+                    return starts[p] + i;
+                }
+            }
+            Integer n = loose.get(id);
+            if (n == null) {
+                if (!looseFile(id).isFile()) {
+                    return -1;
+                }
+                n = starts[packs.size()] + loose.size();
+                loose.put(id, n);
+            }
+            return n;
+        }
+    }
+}
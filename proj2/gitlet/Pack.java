@@ -0,0 +1,474 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** A packfile: many objects stored back to back, each one compressed with
+ *  deflate, together with an index mapping object ids to their entries.
+ *
+ *  The pack holds a header ("PACK", version, number of objects) followed by
+ *  one entry per object: its type byte, its uncompressed size as a varint and
+ *  its deflated contents. An entry whose type byte has DELTA_FLAG set instead
+ *  holds, after the type byte, the id of a base object in the same pack and a
+ *  deflated Delta against that base. Recently rebuilt bases are kept in a
+ *  small cache so that reading several versions along a chain stays fast.
+ *  The index holds a 256-entry fanout table whose i-th
+ *  slot counts the ids whose first byte is at most i, then the sorted 20-byte
+ *  ids, then the type, offset and length of each entry. Finding an object is
+ *  a binary search within one fanout bucket followed by one seek into the pack.
+ *
+ *  @author Sueray
+ */
+class Pack {
+
+    /** The directory holding all packs and their indices. */
+    static final File PACK_DIR = Utils.join(ObjectStore.OBJECTS_DIR, "pack");
+
+    /** Magic number opening every pack file ("PACK"). */
+    private static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number opening every index file ("GIDX"). */
+    private static final int IDX_MAGIC = 0x47494458;
+    /** Format version of packs and indices. */
+    private static final int VERSION = 1;
+    /** Size in bytes of an object id. */
+    private static final int ID_BYTES = 20;
+    /** Size in bytes of the header of either file. */
+    private static final int HEADER_BYTES = 12;
+    /** Offset of the sorted ids within an index. */
+    private static final int IDS_START = HEADER_BYTES + 256 * 4;
+    /** Bit of an entry's type byte marking it as a delta. */
+    private static final int DELTA_FLAG = 0x80;
+    /** The packs of this repository, read once per run. */
+    private static List<Pack> packs;
+
+    /** The pack file. */
+    private final File packFile;
+    /** The contents of the index file. */
+    private final ByteBuffer index;
+    /** The number of objects in this pack. */
+    private final int count;
+    /** The reachability bitmaps of this pack, once read. */
+    private Bitmaps bitmaps;
+    /** Whether the bitmap file of this pack has been looked for. */
+    private boolean bitmapsRead;
+
+    /** Read the pack whose index is IDXFILE. */
+    private Pack(File idxFile) {
+        String name = idxFile.getName();
+        packFile = Utils.join(idxFile.getParentFile(),
+                name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath())) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != IDX_MAGIC || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt pack index %s.", name);
+        }
+        count = index.getInt(8);
+    }
+
+    /** Return all packs of this repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new Pack(Utils.join(PACK_DIR, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forget the packs read so far, so that the next call to all
+     *  rereads them. */
+    static synchronized void reload() {
+        packs = null;
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Return the id of the I-th object, in order of ids. */
+    String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(IDS_START + i * ID_BYTES, id);
+        return Utils.toHex(id, 0, ID_BYTES);
+    }
+
+    /** Return the type of the I-th object. */
+    byte typeAt(int i) {
+        return index.get(typesStart() + i);
+    }
+
+    /** Return the position of the object with the given ID in order of
+     *  ids, or -1 if it is not in this pack. */
+    int find(String id) {
+        byte[] key = Utils.fromHex(id);
+        int first = key[0] & 0xFF;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_BYTES + (first - 1) * 4);
+        int hi = index.getInt(HEADER_BYTES + first * 4) - 1;
+        byte[] probe = new byte[ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            index.get(IDS_START + mid * ID_BYTES, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the ids in this pack that start with the hexadecimal PREFIX,
+     *  found by a binary search for the first id not below PREFIX. */
+    List<String> findPrefix(String prefix) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < 2 * ID_BYTES) {
+            padded.append('0');
+        }
+        byte[] key = Utils.fromHex(padded.toString());
+        int first = key[0] & 0xFF;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_BYTES + (first - 1) * 4);
+        int hi = count;
+        byte[] probe = new byte[ID_BYTES];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            index.get(IDS_START + mid * ID_BYTES, probe);
+            if (Arrays.compareUnsigned(probe, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lo; i < count; i += 1) {
+            String id = idAt(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Return the number of bytes the I-th object takes in the pack. */
+    int storedSize(int i) {
+        return index.getInt(lengthsStart() + i * 4);
+    }
+
+    /** Return the uncompressed contents of the I-th object. */
+    byte[] read(int i) {
+        long offset = index.getLong(offsetsStart() + i * 8);
+        int length = index.getInt(lengthsStart() + i * 4);
+        byte[] entry = Utils.readRange(packFile, offset, length);
+        boolean isDelta = (entry[0] & DELTA_FLAG) != 0;
+        int[] pos = {isDelta ? 1 + ID_BYTES : 1};
+        int size = (int) Utils.readVarint(entry, pos);
+        byte[] data = Utils.decompress(entry, pos[0], length - pos[0], size);
+        if (!isDelta) {
+            return data;
+        }
+        return Delta.apply(readBase(Utils.toHex(entry, 1, ID_BYTES)), data);
+    }
+
+    /** Write the uncompressed contents of the I-th object to OUT at its
+     *  position. Unless the object is a delta, which needs its base in
+     *  memory, it is inflated from the mapped pack a chunk at a time. */
+    void copyTo(int i, FileChannel out) {
+        long offset = index.getLong(offsetsStart() + i * 8);
+        int length = index.getInt(lengthsStart() + i * 4);
+        Inflater inflater = new Inflater();
+        try (FileChannel in = FileChannel.open(packFile.toPath())) {
+            MappedByteBuffer entry = in.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            if ((entry.get(0) & DELTA_FLAG) != 0) {
+                out.write(ByteBuffer.wrap(read(i)));
+                return;
+            }
+            byte[] header = new byte[Math.min(length, 11)];
+            entry.get(0, header);
+            int[] pos = {1};
+            long size = Utils.readVarint(header, pos);
+            inflater.setInput(entry.position(pos[0]));
+            ByteBuffer chunk = ByteBuffer.allocateDirect(Utils.CHUNK_SIZE);
+            long written = 0;
+            while (!inflater.finished()) {
+                if (inflater.inflate(chunk) == 0 && inflater.needsInput()) {
+                    break;
+                }
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk);
+                }
+                chunk.clear();
+            }
+            if (written != size) {
+                throw Utils.error("Corrupt compressed object.");
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt compressed object.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Return the contents of the delta base ID, which is kept in the
+     *  ObjectCache, as the bases of many deltas are the same few blobs. */
+    private byte[] readBase(String id) {
+        byte[] contents = ObjectCache.SHARED.get(id, byte[].class);
+        if (contents == null) {
+            int i = find(id);
+            if (i < 0) {
+                throw Utils.error("Missing delta base %s.", id);
+            }
+            contents = read(i);
+            ObjectCache.SHARED.put(id, contents, ObjectCache.OBJECT_BYTES + contents.length);
+        }
+        return contents;
+    }
+
+    /** Return the reachability bitmaps of this pack, or null if it has
+     *  none. */
+    synchronized Bitmaps bitmaps() {
+        if (!bitmapsRead) {
+            bitmapsRead = true;
+            if (bitmapFile().isFile()) {
+                bitmaps = new Bitmaps(bitmapFile());
+            }
+        }
+        return bitmaps;
+    }
+
+    /** Return the name of this pack, which is the same for any two packs
+     *  of the same objects. */
+    String name() {
+        String name = packFile.getName();
+        return name.substring(0, name.length() - 5);
+    }
+
+    /** Return the file holding the reachability bitmaps of this pack. */
+    File bitmapFile() {
+        return Utils.join(packFile.getParentFile(), name() + ".bitmap");
+    }
+
+    /** Delete this pack, its index and its bitmaps. */
+    void delete() {
+        bitmapFile().delete();
+        packFile.delete();
+        Utils.join(PACK_DIR, name() + ".idx").delete();
+    }
+
+    /** Return the number of bytes this pack and its index take on disk. */
+    long diskSize() {
+        return packFile.length() + index.capacity();
+    }
+
+    private int typesStart() {
+        return IDS_START + count * ID_BYTES;
+    }
+
+    private int offsetsStart() {
+        return typesStart() + count;
+    }
+
+    private int lengthsStart() {
+        return offsetsStart() + count * 8;
+    }
+
+    /** Writes a new pack, one object at a time, then its index. */
+    static class Writer {
+
+        /** The directory the pack is written to. */
+        private final File dir;
+        /** The pack file being written. */
+        private final File tempFile;
+        /** The stream into tempFile. */
+        private final DataOutputStream out;
+        /** The entries written so far. */
+        private final List<Entry> entries = new ArrayList<>();
+        /** The number of bytes written so far. */
+        private long offset;
+        /** Whether finish found the pack already there. */
+        private boolean existed;
+
+        /** Start a new pack of this repository. */
+        Writer() {
+            this(PACK_DIR);
+        }
+
+        /** Start a new pack in DIR, which may be the pack directory of
+         *  another repository. */
+        Writer(File dir) {
+            this.dir = dir;
+            dir.mkdirs();
+            try {
+                tempFile = File.createTempFile("pack", ".tmp", dir);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tempFile.toPath())));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+                offset = HEADER_BYTES;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Append the object ID of the given TYPE and CONTENTS. */
+        void add(String id, byte type, byte[] contents) {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            entry.write(type);
+            Utils.writeVarint(entry, contents.length);
+            entry.writeBytes(Utils.compress(contents));
+            append(id, type, entry);
+        }
+
+        /** Append the object ID of the given TYPE, stored as DELTA against
+         *  the object BASE, which must also be in this pack. */
+        void addDelta(String id, byte type, String base, byte[] delta) {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            entry.write(type | DELTA_FLAG);
+            entry.writeBytes(Utils.fromHex(base));
+            Utils.writeVarint(entry, delta.length);
+            entry.writeBytes(Utils.compress(delta));
+            append(id, type, entry);
+        }
+
+        /** Write ENTRY, holding the object ID of the given TYPE. */
+        private void append(String id, byte type, ByteArrayOutputStream entry) {
+            try {
+                entry.writeTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            entries.add(new Entry(id, type, offset, entry.size()));
+            offset += entry.size();
+        }
+
+        /** Return the number of objects added so far. */
+        int size() {
+            return entries.size();
+        }
+
+        /** Return true iff finish returned a pack that was already there
+         *  rather than writing a new one. */
+        boolean existed() {
+            return existed;
+        }
+
+        /** Finish the pack, write its index, and return it. A pack is named
+         *  by its objects, so if a pack of the same objects is already in
+         *  the directory, it is returned instead and nothing is written;
+         *  existed then returns true. */
+        Pack finish() {
+            entries.sort(Comparator.comparing(e -> e.id));
+            StringBuilder allIds = new StringBuilder();
+            for (Entry e : entries) {
+                allIds.append(e.id);
+            }
+            String name = "pack-" + Utils.sha1(allIds.toString());
+            try {
+                out.close();
+                File idxFile = Utils.join(dir, name + ".idx");
+                if (idxFile.isFile() && Utils.join(dir, name + ".pack").isFile()) {
+                    tempFile.delete();
+                    existed = true;
+                    return new Pack(idxFile);
+                }
+                try (RandomAccessFile patch = new RandomAccessFile(tempFile, "rw")) {
+                    patch.seek(8);
+                    patch.writeInt(entries.size());
+                }
+                File idxTemp = Utils.join(dir, name + ".idx.tmp");
+                writeIndex(idxTemp);
+                Utils.sync(List.of(tempFile, idxTemp));
+                Files.move(tempFile.toPath(), Utils.join(dir, name + ".pack").toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                Files.move(idxTemp.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Utils.sync(List.of(dir));
+                return new Pack(idxFile);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Write the index of the entries added to IDXFILE. */
+        private void writeIndex(File idxFile) throws IOException {
+            int[] fanout = new int[256];
+            for (Entry e : entries) {
+                fanout[Integer.parseInt(e.id.substring(0, 2), 16)] += 1;
+            }
+            try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(idxFile.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)))) {
+                idx.writeInt(IDX_MAGIC);
+                idx.writeInt(VERSION);
+                idx.writeInt(entries.size());
+                int total = 0;
+                for (int n : fanout) {
+                    total += n;
+                    idx.writeInt(total);
+                }
+                for (Entry e : entries) {
+                    idx.write(Utils.fromHex(e.id));
+                }
+                for (Entry e : entries) {
+                    idx.writeByte(e.type);
+                }
+                for (Entry e : entries) {
+                    idx.writeLong(e.offset);
+                }
+                for (Entry e : entries) {
+                    idx.writeInt(e.length);
+                }
+            }
+        }
+    }
+
+    /** Where one object was written in a pack. */
+    private static class Entry {
+        /** The id of the object. */
+        private final String id;
+        /** The type of the object. */
+        private final byte type;
+        /** The position of the entry in the pack. */
+        private final long offset;
+        /** The length of the entry in bytes. */
+        private final int length;
+
+        Entry(String id, byte type, long offset, int length) {
+            this.id = id;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/** The log of every change to a branch, kept in .gitlet/reflog.
+ *  Each change is appended as one line holding the old and new UIDs of the
+ *  branch (forty zeros where it did not or does not exist), its name, the
+ *  time in milliseconds and a short description, separated by spaces.
+ *
+ *  The log is also the journal of the branches file. A change is appended
+ *  and forced to disk, together with any objects it needs, before the
+ *  branches file is replaced, so appending it is the moment the change
+ *  happens: if a command stops before replacing the branches file, the next
+ *  one finds the last change missing from it and applies it again. The
+ *  whole update thus costs a single batch of syncs, and the branches file
+ *  and staging area are never synced at all.
+ *
+ *  @author Sueray
+ */
+class RefLog {
+
+    /** The file holding the log. */
+    static final File LOG_FILE = Utils.join(Repository.GITLET_DIR, "reflog");
+
+    /** The UID written for a branch that does not exist. */
+    private static final String NONE = "0".repeat(Utils.UID_LENGTH);
+    /** How many bytes to read at a time from the end of the log. */
+    private static final int TAIL_BYTES = 4096;
+
+    /** Record that BRANCH moves from OLDID to NEWID for the reason given in
+     *  MESSAGE, making the change and the objects it refers to durable.
+     *  Either id may be null when the branch does not exist on that side. */
+    static void append(String branch, String oldID, String newID, String message) {
+        ObjectStore.sync();
+        String line = (oldID == null ? NONE : oldID) + " " + (newID == null ? NONE : newID)
+                + " " + branch + " " + System.currentTimeMillis() + " "
+                + message.replace('\n', ' ') + "\n";
+        try (FileChannel log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Apply the last change in the log to BRANCHES if it is missing there,
+     *  as happens when a command stops between logging a change and
+     *  replacing the branches file. A last line left incomplete by a crash
+     *  was never synced, so it is ignored.
+     * @return true iff BRANCHES was changed
+     */
+    static boolean recover(Map<String, String> branches) {
+        String last = lastLine();
+        if (last == null) {
+            return false;
+        }
+        String[] fields = last.split(" ", 5);
+        String branch = fields[2];
+        String newID = fields[1].equals(NONE) ? null : fields[1];
+        if (newID == null ? !branches.containsKey(branch) : newID.equals(branches.get(branch))) {
+            return false;
+        }
+        if (newID == null) {
+            branches.remove(branch);
+        } else {
+            branches.put(branch, newID);
+        }
+        return true;
+    }
+
+    /** Return the last complete line of the log without its newline, or
+     *  null if there is none. Only the end of the log is read. */
+    private static String lastLine() {
+        if (!LOG_FILE.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(LOG_FILE, "r")) {
+            long length = in.length();
+            for (long want = TAIL_BYTES; ; want *= 2) {
+                int n = (int) Math.min(want, length);
+                byte[] tail = new byte[n];
+                in.seek(length - n);
+                in.readFully(tail);
+                int end = n;
+                while (end > 0 && tail[end - 1] != '\n') {
+                    end -= 1;
+                }
+                if (end == 0) {
+                    if (n == length) {
+                        return null;
+                    }
+                    continue;
+                }
+                int start = end - 1;
+                while (start > 0 && tail[start - 1] != '\n') {
+                    start -= 1;
+                }
+                if (start > 0 || n == length) {
+                    return new String(tail, start, end - 1 - start, StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/** The remotes of a repository: other gitlet repositories on this machine,
+ *  each named by the user and reached through the path of its .gitlet
+ *  directory, saved in .gitlet/remotes.
+ *
+ *  Gitlet talks to a remote the way git talks to a repository on the local
+ *  filesystem: by running gitlet in the remote's directory. Only three
+ *  commands are run there. "ls-refs" lists the remote's branches.
+ *  "upload-pack" is given the commit wanted and the commits the local
+ *  repository has, and writes just the objects the local repository lacks
+ *  into a new pack in its pack directory. "update-ref" moves a remote
+ *  branch once a push has written its pack into the remote's pack
+ *  directory. Each prints "ok" as its last line if it succeeded, and the
+ *  error message otherwise. A command sent to a remote with a running
+ *  Daemon is served by it, so its caches stay current.
+ *
+ *  @author Sueray
+ */
+class Remote {
+
+    /** The file listing the remotes. */
+    static final File REMOTES = Utils.join(Repository.GITLET_DIR, "remotes");
+
+    /** Return the remotes, mapping names to the paths of their .gitlet
+     *  directories. */
+    static TreeMap<String, String> all() {
+        return REMOTES.isFile() ? Codec.STRING_MAP.read(REMOTES) : new TreeMap<>();
+    }
+
+    /** Save REMOTES as the remotes. */
+    static void save(TreeMap<String, String> remotes) {
+        Codec.STRING_MAP.write(REMOTES, remotes);
+    }
+
+    /** Return the .gitlet directory of the remote NAME. Exits with an error
+     *  if it does not exist. */
+    static File dir(String name) {
+        String path = all().get(name);
+        File dir = path == null ? null : new File(path.replace("/", File.separator));
+        if (dir != null && !dir.isAbsolute()) {
+            dir = Utils.join(Repository.CWD, dir.getPath());
+        }
+        if (dir == null || !dir.isDirectory()) {
+            Utils.exitWithError("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    /** Return the branches of the repository whose .gitlet directory is
+     *  DIR, mapping their names to the UIDs of their heads. */
+    static TreeMap<String, String> refs(File dir) {
+        TreeMap<String, String> refs = new TreeMap<>();
+        for (String line : run(dir, "ls-refs")) {
+            int space = line.indexOf(' ');
+            refs.put(line.substring(space + 1), line.substring(0, space));
+        }
+        return refs;
+    }
+
+    /** Run gitlet with the given ARGS in the repository whose .gitlet
+     *  directory is DIR.
+     * @return the lines it printed before "ok"
+     */
+    static List<String> run(File dir, String... args) {
+        String output;
+        try {
+            Process process = new ProcessBuilder(Utils.gitletCommand(args))
+                    .directory(dir.getAbsoluteFile().getParentFile())
+                    .redirectErrorStream(true).start();
+            try (InputStream in = process.getInputStream()) {
+                output = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            process.waitFor();
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Could not run gitlet in %s.", dir.getParent());
+        }
+        List<String> lines = new ArrayList<>(Arrays.asList(output.split("\n")));
+        if (!lines.get(lines.size() - 1).equals("ok")) {
+            throw Utils.error(output.isBlank() ? "The remote failed." : output.strip());
+        }
+        lines.remove(lines.size() - 1);
+        return lines;
+    }
+}
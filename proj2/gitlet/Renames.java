@@ -0,0 +1,277 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Detection of renamed and copied files among the changes between two
+ *  versions of a repository. Files are tracked by name, so a file that
+ *  moves shows up as one file deleted and another added; pairing them up
+ *  lets status, log and diff report the move instead. The contents are
+ *  stored once either way, as blobs are named by their contents.
+ *
+ *  Added files are first paired with deleted files holding the same blob,
+ *  which only compares ids. The rest are compared by sketches of their
+ *  contents: each file is cut into chunks ending at a newline or after
+ *  CHUNK_BYTES bytes, and the hashes of its chunks are kept, or of a
+ *  sample of at most about MAX_SAMPLES of them for large files. Two files
+ *  are SIMILARITY percent alike when that share of the chunks of the
+ *  larger one is also in the other. Rather than comparing every added file
+ *  with every deleted one, an index from each chunk hash to the files
+ *  holding it finds the files sharing at least one chunk, and the pairs
+ *  found are sorted by how alike they are and taken best first, so the
+ *  work grows as n log n in the number of changed files.
+ *
+ *  An added file that matches a file that was changed, or the same blob as
+ *  any file of the old version, is reported as a copy of it, as the file
+ *  it was copied from is still there.
+ *
+ *  @author Sueray
+ */
+class Renames {
+
+    /** The least similarity, in percent, of a rename or copy. */
+    static final int SIMILARITY = 50;
+    /** The most bytes in one chunk. */
+    private static final int CHUNK_BYTES = 64;
+    /** The number of chunk hashes above which a sketch is sampled. */
+    private static final int MAX_SAMPLES = 256;
+    /** The most files a chunk hash may be indexed for before it is taken
+     *  to be too common, like a blank line, to tell files apart. */
+    private static final int MAX_POSTINGS = 32;
+
+    /** A file of one version found again under a new name in the other. */
+    static class Pair {
+        /** The name of the file in the old version. */
+        final String from;
+        /** The name of the file in the new version. */
+        final String to;
+        /** How alike the two files are, in percent. */
+        final int score;
+        /** Whether FROM is still there, so TO is a copy of it. */
+        final boolean copy;
+
+        Pair(String from, String to, int score, boolean copy) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+            this.copy = copy;
+        }
+
+        /** Return a line describing this pair, as log prints it. */
+        @Override
+        public String toString() {
+            return String.format("%s %s => %s (%d%%)", copy ? "copy" : "rename", from, to, score);
+        }
+    }
+
+    /** Return the renames and copies among CHANGES, which maps the names
+     *  of changed files to their old and new blob ids, either of which is
+     *  null for a file added or deleted, sorted by the new names.
+     * @param oldFiles every file of the old version, whose blobs may have
+     *                 been copied exactly, or null to look only at the
+     *                 changed files
+     * @param newContents the contents of the new version of a file, given
+     *                    its name
+     */
+    static List<Pair> detect(Map<String, String[]> changes, Map<String, String> oldFiles,
+                             Function<String, byte[]> newContents) {
+        List<String> added = new ArrayList<>();
+        TreeMap<String, String> sources = new TreeMap<>();
+        HashMap<String, String> deletedByID = new HashMap<>();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String oldID = e.getValue()[0];
+            if (e.getValue()[1] == null) {
+                sources.put(e.getKey(), oldID);
+                deletedByID.putIfAbsent(oldID, e.getKey());
+            } else if (oldID == null) {
+                added.add(e.getKey());
+            } else {
+                sources.put(e.getKey(), oldID);
+            }
+        }
+        List<Pair> pairs = new ArrayList<>();
+        if (added.isEmpty() || sources.isEmpty() && oldFiles == null) {
+            return pairs;
+        }
+
+        HashMap<String, String> copiedByID = new HashMap<>();
+        for (Map<String, String> files : Arrays.asList(oldFiles, sources)) {
+            if (files != null) {
+                for (Map.Entry<String, String> e : files.entrySet()) {
+                    copiedByID.putIfAbsent(e.getValue(), e.getKey());
+                }
+            }
+        }
+        HashSet<String> used = new HashSet<>();
+        List<String> unmatched = new ArrayList<>();
+        for (String name : added) {
+            String id = changes.get(name)[1];
+            String from = deletedByID.remove(id);
+            if (from != null) {
+                pairs.add(new Pair(from, name, 100, false));
+                used.add(from);
+            } else if (copiedByID.containsKey(id)) {
+                pairs.add(new Pair(copiedByID.get(id), name, 100, true));
+            } else {
+                unmatched.add(name);
+            }
+        }
+        sources.keySet().removeAll(used);
+        if (!unmatched.isEmpty() && !sources.isEmpty()) {
+            pairs.addAll(similar(sources, unmatched, changes, newContents));
+        }
+        pairs.sort(Comparator.comparing((Pair p) -> p.to));
+        return pairs;
+    }
+
+    /** Return the best pairs of a file of SOURCES, mapping names to old
+     *  blob ids, and one of the added files TARGETS that are at least
+     *  SIMILARITY percent alike, using each target at most once and each
+     *  deleted source at most once. */
+    private static List<Pair> similar(TreeMap<String, String> sources, List<String> targets,
+                                      Map<String, String[]> changes,
+                                      Function<String, byte[]> newContents) {
+        List<String> sourceNames = new ArrayList<>(sources.keySet());
+        Sketch[] sourceSketches = new Sketch[sourceNames.size()];
+        HashMap<Integer, List<Integer>> index = new HashMap<>();
+        for (int s = 0; s < sourceSketches.length; s += 1) {
+            sourceSketches[s] = new Sketch(Blob.contents(sources.get(sourceNames.get(s))));
+            int[] hashes = sourceSketches[s].hashes;
+            for (int k = 0; k < hashes.length; k += 1) {
+                if (k > 0 && hashes[k] == hashes[k - 1]) {
+                    continue;
+                }
+                List<Integer> postings = index.computeIfAbsent(hashes[k], h -> new ArrayList<>());
+                if (postings.size() <= MAX_POSTINGS) {
+                    postings.add(s);
+                }
+            }
+        }
+
+        List<Pair> candidates = new ArrayList<>();
+        for (String target : targets) {
+            Sketch sketch = new Sketch(newContents.apply(target));
+            HashSet<Integer> tried = new HashSet<>();
+            int[] hashes = sketch.hashes;
+            for (int k = 0; k < hashes.length; k += 1) {
+                List<Integer> postings = index.get(hashes[k]);
+                if (postings == null || postings.size() > MAX_POSTINGS
+                        || k > 0 && hashes[k] == hashes[k - 1]) {
+                    continue;
+                }
+                for (int s : postings) {
+                    if (!tried.add(s)) {
+                        continue;
+                    }
+                    int score = sketch.similarity(sourceSketches[s]);
+                    if (score >= SIMILARITY) {
+                        String from = sourceNames.get(s);
+                        candidates.add(new Pair(from, target, score,
+                                changes.get(from)[1] != null));
+                    }
+                }
+            }
+        }
+
+        candidates.sort(Comparator.comparingInt((Pair p) -> -p.score)
+                .thenComparing(p -> p.to).thenComparing(p -> p.from));
+        HashSet<String> taken = new HashSet<>();
+        List<Pair> result = new ArrayList<>();
+        for (Pair pair : candidates) {
+            if (!taken.contains(pair.to) && (pair.copy || !taken.contains(pair.from))) {
+                taken.add(pair.to);
+                taken.add(pair.from);
+                result.add(pair);
+            }
+        }
+        return result;
+    }
+
+    /** The sorted hashes of the chunks of a file, or of a sample of them:
+     *  those whose lowest SHIFT bits are all zero. Sampling by the hash
+     *  rather than by position keeps the same chunks in every file, so two
+     *  sketches are compared by sampling the finer one down to the
+     *  coarser. */
+    private static class Sketch {
+        /** The number of low bits that are zero in each sampled hash. */
+        private final int shift;
+        /** The sampled hashes, sorted. */
+        private final int[] hashes;
+
+        /** The sketch of the file holding CONTENTS. */
+        Sketch(byte[] contents) {
+            int[] all = new int[contents.length / 8 + 1];
+            int n = 0;
+            int hash = 0;
+            int start = 0;
+            for (int i = 0; i < contents.length; i += 1) {
+                hash = hash * 0x01000193 ^ (contents[i] & 0xff);
+                if (contents[i] == '\n' || i + 1 - start == CHUNK_BYTES || i + 1 == contents.length) {
+                    if (n == all.length) {
+                        all = Arrays.copyOf(all, 2 * n);
+                    }
+                    all[n++] = mix(hash);
+                    hash = 0;
+                    start = i + 1;
+                }
+            }
+            int bits = 0;
+            while (n >> bits > MAX_SAMPLES) {
+                bits += 1;
+            }
+            shift = bits;
+            hashes = sample(Arrays.copyOf(all, n), shift);
+            Arrays.sort(hashes);
+        }
+
+        /** Return how alike this file and the file of OTHER are, in
+         *  percent of the chunks of the larger one. */
+        int similarity(Sketch other) {
+            int bits = Math.max(shift, other.shift);
+            int[] a = sample(hashes, bits);
+            int[] b = sample(other.hashes, bits);
+            if (a.length == 0 || b.length == 0) {
+                return 0;
+            }
+            int common = 0;
+            for (int i = 0, j = 0; i < a.length && j < b.length;) {
+                if (a[i] == b[j]) {
+                    common += 1;
+                    i += 1;
+                    j += 1;
+                } else if (a[i] < b[j]) {
+                    i += 1;
+                } else {
+                    j += 1;
+                }
+            }
+            return (int) (100L * common / Math.max(a.length, b.length));
+        }
+
+        /** Return the HASHES whose lowest BITS bits are zero, in order. */
+        private static int[] sample(int[] hashes, int bits) {
+            if (bits == 0) {
+                return hashes;
+            }
+            int mask = (1 << bits) - 1;
+            return Arrays.stream(hashes).filter(h -> (h & mask) == 0).toArray();
+        }
+
+        /** Return HASH with its bits mixed, so its low bits sample
+         *  evenly. */
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            hash *= 0xc2b2ae35;
+            return hash ^ hash >>> 16;
+        }
+    }
+}
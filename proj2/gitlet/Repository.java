@@ -15,30 +15,28 @@ class Repository {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = Utils.join(CWD, ".gitlet");
-    /** The file of commits */
-    public static final File COMMITS_DIR = Utils.join(GITLET_DIR, "commits");
     /** The file with staged Blobs to be added. */
     public static final File fileOfAddStage = Utils.join(GITLET_DIR, "addition");
     /** The file with staged Blobs to be removed. */
     public static final File fileOfRemoveStage = Utils.join(GITLET_DIR, "removal");
-    /** The file of HEAD */
+    /** The file holding the name of the current branch */
     public static final File head = Utils.join(GITLET_DIR, "head");
     /** The file of branches */
     public static final File branches = Utils.join(GITLET_DIR, "branches");
-    /** The file of split points */
-    public static final File splitPoints = Utils.join(GITLET_DIR, "splitPoints");
     /** The initialCommit for all directories. */
     public static final Commit INITIAL_COMMIT = new Commit();
 
     /** The HEAD pointer of this Repository. */
     private Commit HEAD = INITIAL_COMMIT;
-    /** The branches mapped to their heads. */
-    private HashMap<String, Commit> BRANCHES = new HashMap<>();
-    /** The split points */
-    private ArrayList<Commit> SPLITPOINTS = new ArrayList<>();
-    /** The map of Blobs to be staged */
-    private HashMap<String, Blob> stagedForAddition = new HashMap<>();
-    private HashMap<String, Blob> stagedForRemoval = new HashMap<>();
+    /** The name of the current branch. */
+    private String currentBranch = "master";
+    /** The branches mapped to the UIDs of their heads. */
+    private HashMap<String, String> BRANCHES = new HashMap<>();
+    /** The maps of file names to the ids of blobs to be staged */
+    private HashMap<String, String> stagedForAddition = new HashMap<>();
+    private HashMap<String, String> stagedForRemoval = new HashMap<>();
+    /** The cache of working file hashes, read when first needed. */
+    private Index index;
 
     public Repository() {
     }
@@ -52,15 +50,13 @@ class Repository {
         }
         //make the .gitlet and .stage dir.
         GITLET_DIR.mkdir();
-        COMMITS_DIR.mkdir();
+        ObjectStore.init();
         //treeOfCommits.put(INITIAL_COMMIT.getUID(), INITIAL_COMMIT);
         //set HEAD pointer to the INITIAL_COMMIT.
         HEAD = INITIAL_COMMIT;
-        BRANCHES.put("master", INITIAL_COMMIT);
-        Utils.writeObject(head, HEAD);
-        Utils.writeObject(branches, BRANCHES);
-        //Utils.writeObject(fileOfCommits, treeOfCommits);
-        Utils.writeObject(Utils.join(COMMITS_DIR, HEAD.getUID()), HEAD);
+        HEAD.save();
+        Utils.writeAtomically(head, currentBranch);
+        updateBranch(currentBranch, INITIAL_COMMIT.getUID(), "commit (initial)");
     }
 
     /** Add a file to the staging area of current commit.
@@ -72,47 +68,73 @@ class Repository {
         if (!file.exists()) {
             Utils.exitWithError("File does not exist.");
         }
-        //Take a snapShot of blob to be added
-        Blob target = Blob.snapShot(file);
+        //Take a snapShot of blob to be added, unless it is unchanged since the last one
+        String target = index().snapShot(fileName, file);
+        index().write();
         //get current staging area
-        if (fileOfAddStage.exists()) {
-            stagedForAddition = Utils.readObject(fileOfAddStage, stagedForAddition.getClass());
-        }//check the existence of target file in commit
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        Blob fileInCommit = HEAD.searchFor(fileName);
+        readStagingArea();
+        //check the existence of target file in commit
+        readHead();
+        String fileInCommit = HEAD.searchFor(fileName);
+        stagedForRemoval.remove(fileName);
         if (fileInCommit != null && fileInCommit.equals(target)) {
             //if the file in commit is identical to input
-            //remove it from staging area (if there is one) and return.
-            if (stagedForAddition.get(fileName) != null) {
-                stagedForAddition.remove(fileName);
-            }
-            return;
+            //remove it from staging area (if there is one).
+            stagedForAddition.remove(fileName);
         } else {
             stagedForAddition.put(fileName, target);
-            Utils.writeObject(fileOfAddStage, stagedForAddition);
         }
+        writeStagingArea();
+    }
+
+    /** Stage every new or changed file in the working directory and its
+     * subdirectories for addition, and every tracked file that is gone from
+     * it for removal. Files are hashed in parallel. */
+    public void addAll() {
+        readHead();
+        readStagingArea();
+        TreeSet<String> files = WorkTree.files();
+        TreeMap<String, String> ids = WorkTree.hash(files, index(), true);
+        index().write();
+        for (Map.Entry<String, String> e : ids.entrySet()) {
+            String fileName = e.getKey();
+            stagedForRemoval.remove(fileName);
+            if (e.getValue().equals(HEAD.searchFor(fileName))) {
+                stagedForAddition.remove(fileName);
+            } else {
+                stagedForAddition.put(fileName, e.getValue());
+            }
+        }
+        for (Map.Entry<String, String> e : HEAD.getTreeOfBlobs().entrySet()) {
+            if (!files.contains(e.getKey())) {
+                stagedForAddition.remove(e.getKey());
+                stagedForRemoval.put(e.getKey(), e.getValue());
+            }
+        }
+        writeStagingArea();
     }
 
     public void removeAFile(String fileName) {
         //construct the copy of target file in local repo
         File file = Utils.join(CWD, fileName);
-        Blob target = Blob.snapShot(file);
         //check the existence of target file in commit
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        Blob fileInCommit = HEAD.searchFor(fileName);
+        readHead();
+        String fileInCommit = HEAD.searchFor(fileName);
         //remove file from commit
         if (fileInCommit != null) {
             if (fileOfRemoveStage.exists()) {
-                stagedForRemoval = Utils.readObject(fileOfRemoveStage, stagedForAddition.getClass());
+                stagedForRemoval = Codec.ID_MAP.read(fileOfRemoveStage);
             }
-            stagedForRemoval.put(fileName, target);
-            Utils.writeObject(fileOfRemoveStage, stagedForRemoval);
-            Utils.restrictedDelete(file);
+            stagedForRemoval.put(fileName, fileInCommit);
+            Codec.ID_MAP.write(fileOfRemoveStage, stagedForRemoval);
+            WorkTree.delete(fileName);
+            index().remove(fileName);
+            index().write();
         } else if (fileOfAddStage.exists()) {
-            stagedForAddition = Utils.readObject(fileOfAddStage, stagedForAddition.getClass());
+            stagedForAddition = Codec.ID_MAP.read(fileOfAddStage);
             if (stagedForAddition.get(fileName) != null) {
                 stagedForAddition.remove(fileName);
-                Utils.writeObject(fileOfAddStage, stagedForAddition);
+                Codec.ID_MAP.write(fileOfAddStage, stagedForAddition);
             }
         } else {
             Utils.exitWithError("No reason to remove the file.");
@@ -130,34 +152,23 @@ class Repository {
             Utils.exitWithError("Please enter a commit message.");
         }
         //pull out all changes to be committed and the current commit tree
-        if (fileOfAddStage.exists()) {
-            stagedForAddition = Utils.readObject(fileOfAddStage, stagedForAddition.getClass());
-        }
-        if (fileOfRemoveStage.exists()) {
-            stagedForRemoval = Utils.readObject(fileOfRemoveStage, stagedForRemoval.getClass());
-        }
-        HEAD = Utils.readObject(head, HEAD.getClass());
+        readStagingArea();
+        readHead();
 
-        //create a "current commit" whose parent points to previous "current commit".
-        Commit current = new Commit(message, new Date().toString(), HEAD, HEAD.getBranch());
-        current.setTreeOfBlobs(HEAD.getTreeOfBlobs());
-        HEAD = current;
-        //add everything staged for addition to current commit
-        for (Map.Entry<String, Blob> entries : stagedForAddition.entrySet()) {
-            HEAD.addBlob(entries.getKey(), entries.getValue());
-        }
-        //remove everything staged for removal in current commit
+        //add everything staged for addition and remove everything staged
+        //for removal, rewriting only the trees of the directories touched
+        HashMap<String, String> changes = new HashMap<>(stagedForAddition);
         for (String keys : stagedForRemoval.keySet()) {
-            HEAD.removeBlob(keys);
+            changes.put(keys, null);
         }
-
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        BRANCHES.put(HEAD.getBranch(),HEAD);
-
-        Utils.writeObject(head, HEAD);
-        Utils.writeObject(branches, BRANCHES);
-        Utils.writeObject(Utils.join(COMMITS_DIR, HEAD.getUID()), HEAD);
+        String tree = Tree.update(HEAD.getTreeID(), changes);
+        //create a "current commit" whose parent points to previous "current commit".
+        HEAD = new Commit(message, System.currentTimeMillis(), HEAD.getUID(), tree);
+        HEAD.save();
+        ObjectStore.syncLater(stagedForAddition.values());
+        updateBranch(currentBranch, HEAD.getUID(), "commit: " + message);
         clearStagingArea();
+        MessageIndex.add(HEAD.getUID(), message);
     }
 
     /** Takes file with fileName in the head commit
@@ -167,8 +178,9 @@ class Repository {
      * @param fileName the name of the file to be updated
      * */
     public void checkoutAFile(String fileName) {
-        HEAD = Utils.readObject(head, HEAD.getClass());
+        readHead();
         checkoutCommit(HEAD, fileName);
+        index().write();
     }
 
     /** Takes file with fileName in the commit with commitID
@@ -179,147 +191,158 @@ class Repository {
      * @param commitID the ID of the commit where file exists
      * */
     public void checkoutAFile(String commitID, String fileName) {
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        Commit pointer = HEAD;
-        while (pointer != pointer.getParent()) {
-            if (pointer.getUID().equals(commitID)) {
-                checkoutCommit(pointer, fileName);
-                return;
-            }
-            pointer = pointer.getParent();
-        }
-        Utils.exitWithError("No commit with that id exists.");
+        readHead();
+        Commit target = findCommit(commitID);
+        checkoutCommit(target, fileName);
+        index().write();
     }
 
     /** Display information about each commit.
      * Starting at the current head commit,
      * backwards along the commit tree until the initial commit. */
     public void log() {
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        Commit pointer = HEAD;
-        while (pointer != pointer.getParent()) {
-            printLogInfo(pointer);
-            pointer = pointer.getParent();
+        log(-1, Long.MIN_VALUE, new ArrayList<>(), false, false);
+    }
+
+    /** Display information about commits, newest first, streaming them from
+     * the commit graph so that only the commits printed are read.
+     * @param maxCount the most commits to show, or -1 for no limit
+     * @param since the time in milliseconds of the oldest commit to show
+     * @param branchNames the branches whose history to show; when empty and
+     *                    not ALL, the first-parent history of HEAD is shown
+     * @param all whether to show the history of every branch
+     * @param renames whether to list the files each commit renamed or
+     *                copied from its first parent
+     * */
+    public void log(int maxCount, long since, List<String> branchNames, boolean all,
+                    boolean renames) {
+        readHead();
+        List<String> starts = new ArrayList<>();
+        if (all) {
+            starts.addAll(new TreeMap<>(BRANCHES).values());
+        }
+        for (String name : branchNames) {
+            if (BRANCHES.get(name) == null) {
+                Utils.exitWithError("No such branch exists.");
+            }
+            starts.add(BRANCHES.get(name));
         }
-        printLogInfo(pointer);
+        boolean firstParent = starts.isEmpty();
+        if (firstParent) {
+            starts.add(HEAD.getUID());
+        }
+        CommitGraph graph = CommitGraph.get();
+        Iterator<String> commits = graph.walk(starts, firstParent);
+        StringBuilder out = new StringBuilder();
+        for (int n = 0; commits.hasNext() && n != maxCount; n += 1) {
+            String uid = commits.next();
+            if (graph.time(uid) < since) {
+                break;
+            }
+            Commit commit = Commit.load(uid);
+            appendLogInfo(out, commit);
+            if (renames && commit.getParentID() != null) {
+                appendRenames(out, commit);
+            }
+            flushIfFull(out);
+        }
+        System.out.print(out);
     }
 
     /** Display information about each commit.
      * Order doesn't matter. */
     public void global_log() {
-        List<String> commits = Utils.plainFilenamesIn(COMMITS_DIR);
-        for (String s : commits) {
-            System.out.println(s);
+        StringBuilder out = new StringBuilder();
+        for (String uid : ObjectStore.list(ObjectStore.COMMIT)) {
+            appendLogInfo(out, Commit.load(uid));
+            flushIfFull(out);
         }
+        System.out.print(out);
     }
 
-    /** Prints out the ids of all commits that have the given commit message, one per line. */
-    public void find(String arg) {
-        int count = 0;
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        Commit pointer = HEAD;
-        while (pointer != pointer.getParent()) {
-            if (pointer.getLog().contains(arg)) {
-                System.out.println(pointer.getUID());
-                count++;
-            }
-            pointer = pointer.getParent();
-        }
-        if (count == 0) {
-            Utils.exitWithError("Found no commit with that message.");
-        }
+    /** Prints out the ids of all commits, on any branch, that have the given
+     * commit message, one per line. Commits are looked up in the message
+     * index rather than read one by one.
+     * @param arg the message, or the text to look for if SUBSTRING
+     * @param substring whether to find messages containing ARG rather than
+     *                  equal to it
+     * */
+    public void find(String arg, boolean substring) {
+        printFound(substring ? MessageIndex.containing(arg) : MessageIndex.exact(arg));
     }
 
-    public void status() {
-        System.out.println("=== Branches ===");
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        String currentBranch = HEAD.getBranch();
+    /** Prints out the ids of all commits whose messages contain each of the
+     * given words, ignoring case. */
+    public void findWords(List<String> words) {
+        printFound(MessageIndex.withWords(words));
+    }
+
+    /** Displays the branches, the staging area, the tracked files changed
+     * since they were staged or committed, and the untracked files.
+     * @param renames whether to also list the files staged for addition
+     *                that are renames or copies of files of HEAD
+     * */
+    public void status(boolean renames) {
+        readHead();
+        readStagingArea();
+        TreeSet<String> branchNames = new TreeSet<>();
         for (String s : BRANCHES.keySet()) {
-            if (s.equals(currentBranch)) {s = "*" + s;}
-            System.out.println(s);
-        }
-        if (fileOfAddStage.exists()) {
-            System.out.println("=== Staged Files ===");
-            stagedForAddition = Utils.readObject(fileOfAddStage, stagedForAddition.getClass());
-            for (String s : stagedForAddition.keySet()) {
-                System.out.println(s);
-            }
+            branchNames.add(s.equals(currentBranch) ? "*" + s : s);
         }
-        if (fileOfRemoveStage.exists()) {
-            System.out.println("=== Removed Files ===");
-            stagedForRemoval = Utils.readObject(fileOfRemoveStage, stagedForRemoval.getClass());
-            for (String s : stagedForRemoval.keySet()) {
-                System.out.println(s);
-            }
-        }
-        ArrayList<File> untrackedFiles = untrackedFiles(HEAD);
-        if (!untrackedFiles.isEmpty()) {
-            System.out.println("=== Untracked Files ===");
-            for (File f : untrackedFiles) {
-                System.out.println(f.getName());
-            }
+        printSection("Branches", branchNames);
+        printSection("Staged Files", new TreeSet<>(stagedForAddition.keySet()));
+        printSection("Removed Files", new TreeSet<>(stagedForRemoval.keySet()));
+        if (renames) {
+            printSection("Renamed Files", stagedRenames());
         }
+        printSection("Modifications Not Staged For Commit", unstagedModifications());
+        index().write();
+        printSection("Untracked Files", untrackedFiles(HEAD));
     }
 
     /** Creates a new branch with the given name, and points it at the current head commit.
      * @param arg The branch name
      * */
     public void branch(String arg) {
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        HEAD = Utils.readObject(head, HEAD.getClass());
+        readHead();
         if (BRANCHES.keySet().contains(arg)) {
             Utils.exitWithError("A branch with that name already exists.");
         }
-        BRANCHES.put(arg,HEAD);
-        Utils.writeObject(branches, BRANCHES);
+        updateBranch(arg, HEAD.getUID(), "branch: created from " + currentBranch);
     }
 
     /** Moves the pointer to the branch designated by arg.
      * @param arg The branch name
      * */
     public void checkoutABranch(String arg) {
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        String currentBranch = HEAD.getBranch();
+        readHead();
         if (currentBranch.equals(arg)) {
             Utils.exitWithError("No need to checkout the current branch.");
         } else if (BRANCHES.get(arg) == null) {
             Utils.exitWithError("No such branch exists.");
         }
-        Commit branchHead = BRANCHES.get(arg);
+        Commit branchHead = Commit.load(BRANCHES.get(arg));
         if (!untrackedFiles(HEAD).isEmpty()) {
             Utils.exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
         }
 
-        for (File f : CWD.listFiles()) {
-            if (!branchHead.getTreeOfBlobs().containsKey(f.getName())) {
-                f.delete();
-            }
-        }
-        for (String fileName : branchHead.getTreeOfBlobs().keySet()) {
-            checkoutCommit(branchHead, fileName);
-        }
-
-        branchHead.setBranch(arg);
+        switchTo(branchHead);
+        currentBranch = arg;
         HEAD = branchHead;
-        Utils.writeObject(head, HEAD);
+        Utils.writeAtomically(head, currentBranch);
     }
 
     /** Removes the branch designated by arg.
      * @param arg The branch name
      * */
     public void rm_branch(String arg) {
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        String currentBranch = HEAD.getBranch();
+        readHead();
         if (currentBranch.equals(arg)) {
             Utils.exitWithError("Cannot remove the current branch.");
         } else if (BRANCHES.get(arg) == null) {
             Utils.exitWithError("A branch with that name does not exist.");
         }
-        BRANCHES.remove(arg);
-        Utils.writeObject(branches, BRANCHES);
+        updateBranch(arg, null, "branch: deleted");
     }
 
     /** Checks out all the files tracked by the given commit.
@@ -328,38 +351,341 @@ class Repository {
      * @param arg The commit ID.
      * */
     public void reset(String arg) {
-        HEAD = Utils.readObject(head, HEAD.getClass());
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        Commit pointer = HEAD;
-        while (pointer != pointer.getParent()) {
-            if (pointer.getUID().equals(arg)) {
-                for (File f : CWD.listFiles()) {
-                    if (!pointer.getTreeOfBlobs().containsKey(f.getName())) {
-                        f.delete();
-                    }
+        readHead();
+        Commit target = findCommit(arg);
+        moveTo(target, "reset: moving to " + target.getUID());
+    }
+
+    /** Prints the line-by-line differences between the files of two
+     * commits, or between a commit and the working files it tracks or that
+     * are staged. With no commits, HEAD is compared to the working files.
+     * Added files that are renames or copies of files of the first version
+     * are compared with those files instead.
+     * @param commitIDs zero, one or two commit ids, which may be abbreviated
+     * @param histogram whether to use histogram diff rather than Myers
+     * @param renames whether to detect renames and copies
+     * */
+    public void diff(List<String> commitIDs, boolean histogram, boolean renames) {
+        readHead();
+        Commit from = commitIDs.isEmpty() ? HEAD : findCommit(commitIDs.get(0));
+        TreeMap<String, String[]> changes;
+        if (commitIDs.size() == 2) {
+            changes = Tree.diff(from.getTreeID(), findCommit(commitIDs.get(1)).getTreeID());
+        } else {
+            readStagingArea();
+            TreeSet<String> names = new TreeSet<>(from.getTreeOfBlobs().keySet());
+            names.addAll(stagedForAddition.keySet());
+            TreeMap<String, String> to = WorkTree.hash(names, index(), false);
+            index().write();
+            changes = new TreeMap<>();
+            for (String name : names) {
+                String oldID = from.searchFor(name);
+                String newID = to.get(name);
+                if (!Objects.equals(oldID, newID)) {
+                    changes.put(name, new String[] {oldID, newID});
                 }
-                for (String fileName : pointer.getTreeOfBlobs().keySet()) {
-                    checkoutCommit(pointer, fileName);
+            }
+        }
+        boolean stored = commitIDs.size() == 2;
+        TreeMap<String, String[]> changed = changes;
+        TreeMap<String, Renames.Pair> renamed = new TreeMap<>();
+        if (renames) {
+            for (Renames.Pair pair : Renames.detect(changed, from.getTreeOfBlobs(),
+                    name -> contentsOf(name, changed.get(name)[1], stored))) {
+                renamed.put(pair.to, pair);
+                if (!pair.copy) {
+                    changes.remove(pair.from);
                 }
-                break;
             }
-            pointer = pointer.getParent();
         }
-        if (pointer == pointer.getParent()) {
-            Utils.exitWithError("No commit with that id exists.");
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String name = e.getKey();
+            String oldName = name;
+            String oldID = e.getValue()[0];
+            String newID = e.getValue()[1];
+            Renames.Pair pair = renamed.get(name);
+            if (pair != null) {
+                String kind = pair.copy ? "copy" : "rename";
+                System.out.printf("similarity index %d%%%n%s from %s%n%s to %s%n",
+                        pair.score, kind, pair.from, kind, pair.to);
+                oldName = pair.from;
+                oldID = from.searchFor(pair.from);
+            }
+            System.out.print(Diff.unified(oldName, oldID == null ? null : Blob.contents(oldID),
+                    name, newID == null ? null : contentsOf(name, newID, stored), histogram));
+        }
+    }
+
+    /** Packs all reachable objects into a single compressed pack, storing
+     * older versions of files as deltas against newer ones, deletes the
+     * objects no branch can reach, such as commits dropped by reset or
+     * rm-branch, rewrites the commit graph, and reports the space saved. */
+    public void gc() {
+        readHead();
+        long reclaimed = ObjectStore.repack(reachable(), deltaBases());
+        CommitGraph.write();
+        if (Pack.all().size() == 1) {
+            Bitmaps.write(Pack.all().get(0), BRANCHES.values());
         }
-        BRANCHES.put(HEAD.getBranch(), HEAD);
-        Utils.writeObject(branches, BRANCHES);
+        MessageIndex.rebuild();
+        Utils.message("Reclaimed %d bytes.", reclaimed);
     }
 
-    //not finished
     /** Merges files from the given branch into the current branch.
+     * Each file is compared across the split point, the current head and
+     * the given head: a file changed on only one side takes that side's
+     * version, and a file changed differently on both sides is written
+     * with conflict markers. The result is committed with both heads as
+     * parents.
      * @param arg The branch name of which to be merged.
      * */
     public void merge(String arg) {
-        SPLITPOINTS = Utils.readObject(splitPoints, SPLITPOINTS.getClass());
-        SPLITPOINTS.add(HEAD);
-        Utils.writeObject(splitPoints, SPLITPOINTS);
+        readHead();
+        readStagingArea();
+        if (!stagedForAddition.isEmpty() || !stagedForRemoval.isEmpty()) {
+            Utils.exitWithError("You have uncommitted changes.");
+        } else if (BRANCHES.get(arg) == null) {
+            Utils.exitWithError("A branch with that name does not exist.");
+        } else if (currentBranch.equals(arg)) {
+            Utils.exitWithError("Cannot merge a branch with itself.");
+        }
+        Commit given = Commit.load(BRANCHES.get(arg));
+        Commit split = splitPoint(arg);
+        if (split.getUID().equals(given.getUID())) {
+            Utils.message("Given branch is an ancestor of the current branch.");
+            return;
+        }
+
+        TreeMap<String, String> changes = new TreeMap<>();
+        TreeSet<String> conflicts = new TreeSet<>();
+        TreeSet<String> names = new TreeSet<>(split.getTreeOfBlobs().keySet());
+        names.addAll(HEAD.getTreeOfBlobs().keySet());
+        names.addAll(given.getTreeOfBlobs().keySet());
+        for (String name : names) {
+            String s = split.searchFor(name);
+            String c = HEAD.searchFor(name);
+            String g = given.searchFor(name);
+            if (Objects.equals(s, g) || Objects.equals(c, g)) {
+                continue;
+            } else if (Objects.equals(s, c)) {
+                changes.put(name, g);
+            } else {
+                conflicts.add(name);
+            }
+        }
+        TreeSet<String> untracked = untrackedFiles(HEAD);
+        for (String name : untracked) {
+            if (changes.containsKey(name) || conflicts.contains(name)) {
+                Utils.exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
+        }
+
+        if (split.getUID().equals(HEAD.getUID())) {
+            moveTo(given, "merge " + arg + ": fast-forward");
+            Utils.message("Current branch fast-forwarded.");
+            return;
+        }
+        HashMap<String, String> tree = new HashMap<>(changes);
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String name = e.getKey();
+            if (e.getValue() == null) {
+                WorkTree.delete(name);
+                index().remove(name);
+            } else {
+                checkoutCommit(given, name);
+            }
+        }
+        for (String name : conflicts) {
+            File file = WorkTree.file(name);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, "<<<<<<< HEAD\n", conflictSide(HEAD, name),
+                    "=======\n", conflictSide(given, name), ">>>>>>>\n");
+            tree.put(name, index().snapShot(name, file));
+        }
+        index().write();
+        if (!conflicts.isEmpty()) {
+            Utils.message("Encountered a merge conflict.");
+        }
+        HEAD = new Commit("Merged " + arg + " into " + currentBranch + ".",
+                System.currentTimeMillis(), HEAD.getUID(), given.getUID(),
+                Tree.update(HEAD.getTreeID(), tree));
+        HEAD.save();
+        updateBranch(currentBranch, HEAD.getUID(), "merge " + arg);
+        MessageIndex.add(HEAD.getUID(), HEAD.getLog());
+    }
+
+    /** Saves the remote with the given name, whose .gitlet directory is at
+     * the given path, with '/' between directory names.
+     * @param name the name of the remote
+     * @param path the path of its .gitlet directory
+     * */
+    public void addRemote(String name, String path) {
+        TreeMap<String, String> remotes = Remote.all();
+        if (remotes.containsKey(name)) {
+            Utils.exitWithError("A remote with that name already exists.");
+        }
+        remotes.put(name, path);
+        Remote.save(remotes);
+    }
+
+    /** Forgets the remote with the given name.
+     * @param name the name of the remote
+     * */
+    public void rmRemote(String name) {
+        TreeMap<String, String> remotes = Remote.all();
+        if (remotes.remove(name) == null) {
+            Utils.exitWithError("A remote with that name does not exist.");
+        }
+        Remote.save(remotes);
+    }
+
+    /** Prints the value of the setting KEY, if it is set, or sets it.
+     * @param value the new value, or null to print the current one
+     * @param unset whether to unset the setting instead
+     * */
+    public void config(String key, String value, boolean unset) {
+        if (unset || value != null) {
+            Config.set(key, value);
+        } else if (Config.get(key) != null) {
+            System.out.println(Config.get(key));
+        }
+    }
+
+    /** Appends the commits of the current branch that the remote lacks to
+     * its branch of the given name, creating it if need be. Only the
+     * objects of those commits that are new are sent, in one pack written
+     * into the remote's pack directory.
+     * @param remoteName the name of the remote
+     * @param branch the name of the branch of the remote
+     * */
+    public void push(String remoteName, String branch) {
+        readHead();
+        File remote = Remote.dir(remoteName);
+        TreeMap<String, String> refs = Remote.refs(remote);
+        String old = refs.get(branch);
+        CommitGraph graph = CommitGraph.get();
+        if (old != null && !(ObjectStore.contains(old) && graph.isAncestor(old, HEAD.getUID()))) {
+            Utils.exitWithError("Please pull down remote changes before pushing.");
+        }
+        List<String> haves = new ArrayList<>();
+        for (String uid : refs.values()) {
+            if (ObjectStore.contains(uid)) {
+                haves.add(uid);
+            }
+        }
+        Set<String> objects = missingObjects(List.of(HEAD.getUID()), haves);
+        if (!objects.isEmpty()) {
+            ObjectStore.packObjects(objects, Utils.join(remote, "objects", "pack"));
+        }
+        Remote.run(remote, "update-ref", branch, old == null ? "-" : old, HEAD.getUID());
+    }
+
+    /** Copies the given branch of a remote, and the commits and objects of
+     * it this repository lacks, into the branch named remote/branch.
+     * @param remoteName the name of the remote
+     * @param branch the name of the branch of the remote
+     * */
+    public void fetch(String remoteName, String branch) {
+        readHead();
+        File remote = Remote.dir(remoteName);
+        String tip = Remote.refs(remote).get(branch);
+        if (tip == null) {
+            Utils.exitWithError("That remote does not have that branch.");
+        }
+        if (!ObjectStore.contains(tip)) {
+            List<String> args = new ArrayList<>(List.of("upload-pack",
+                    Pack.PACK_DIR.getAbsolutePath(), tip));
+            args.addAll(new TreeSet<>(BRANCHES.values()));
+            List<String> sent = Remote.run(remote, args.toArray(new String[0]));
+            //the new pack is not seen until the packs are reloaded, so this
+            //finds which of the commits sent were already here
+            List<String> fresh = new ArrayList<>();
+            for (String uid : sent) {
+                if (!ObjectStore.contains(uid)) {
+                    fresh.add(uid);
+                }
+            }
+            Pack.reload();
+            for (String uid : fresh) {
+                MessageIndex.add(uid, Commit.load(uid).getLog());
+            }
+        }
+        String name = remoteName + "/" + branch;
+        updateBranch(name, tip, "fetch: " + name);
+    }
+
+    /** Fetches the given branch of a remote and merges it into the current
+     * branch.
+     * @param remoteName the name of the remote
+     * @param branch the name of the branch of the remote
+     * */
+    public void pull(String remoteName, String branch) {
+        fetch(remoteName, branch);
+        merge(remoteName + "/" + branch);
+    }
+
+    /** Prints the UID and name of every branch, for a repository fetching
+     * from or pushing to this one. */
+    public void lsRefs() {
+        readHead();
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> e : new TreeMap<>(BRANCHES).entrySet()) {
+            out.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+        System.out.print(out.append("ok\n"));
+    }
+
+    /** Writes the commits that another repository lacks, and their new
+     * objects, into a new pack in its pack directory, and prints the UIDs
+     * of the commits.
+     * @param dest the pack directory of the other repository
+     * @param want the UID of the commit it wants
+     * @param haves the UIDs of the branch heads it has, which may include
+     *              commits this repository does not have
+     * */
+    public void uploadPack(String dest, String want, List<String> haves) {
+        if (!ObjectStore.contains(want)) {
+            Utils.exitWithError("No commit with that id exists.");
+        }
+        List<String> known = new ArrayList<>();
+        for (String uid : haves) {
+            if (ObjectStore.contains(uid)) {
+                known.add(uid);
+            }
+        }
+        Set<String> objects = missingObjects(List.of(want), known);
+        if (!objects.isEmpty()) {
+            ObjectStore.packObjects(objects, new File(dest));
+        }
+        StringBuilder out = new StringBuilder();
+        for (String id : objects) {
+            if (ObjectStore.type(id) == ObjectStore.COMMIT) {
+                out.append(id).append('\n');
+            }
+        }
+        System.out.print(out.append("ok\n"));
+    }
+
+    /** Points the given branch at the commit UID after another repository
+     * has pushed its objects, provided the branch still points at OLD.
+     * @param branch the name of the branch
+     * @param old the UID the pusher saw, or "-" if there was no branch
+     * @param uid the UID of the new head
+     * */
+    public void updateRef(String branch, String old, String uid) {
+        readHead();
+        Pack.reload();
+        if (!Objects.equals(BRANCHES.get(branch), old.equals("-") ? null : old)) {
+            Utils.exitWithError("Please pull down remote changes before pushing.");
+        }
+        if (!ObjectStore.contains(uid)) {
+            Utils.exitWithError("No commit with that id exists.");
+        }
+        for (String c : CommitGraph.get().missing(List.of(uid), BRANCHES.values())) {
+            MessageIndex.add(c, Commit.load(c).getLog());
+        }
+        updateBranch(branch, uid, "push");
+        System.out.println("ok");
     }
 
 
@@ -372,6 +698,49 @@ class Repository {
         return GITLET_DIR.exists();
     }
 
+    /** Read the current branch and its head commit from disk. */
+    private void readHead() {
+        currentBranch = Utils.readContentsAsString(head);
+        BRANCHES = Codec.ID_MAP.read(branches);
+        if (RefLog.recover(BRANCHES)) {
+            Codec.ID_MAP.write(branches, BRANCHES);
+        }
+        HEAD = Commit.load(BRANCHES.get(currentBranch));
+    }
+
+    /** Return the index of this repository, reading it if necessary. */
+    private Index index() {
+        if (index == null) {
+            index = Index.read();
+        }
+        return index;
+    }
+
+    /** Read the files staged for addition and removal. */
+    private void readStagingArea() {
+        if (fileOfAddStage.exists()) {
+            stagedForAddition = Codec.ID_MAP.read(fileOfAddStage);
+        }
+        if (fileOfRemoveStage.exists()) {
+            stagedForRemoval = Codec.ID_MAP.read(fileOfRemoveStage);
+        }
+    }
+
+    /** Write the files staged for addition and removal, deleting the file
+     * of an empty stage so that commit can tell nothing is staged. */
+    private void writeStagingArea() {
+        if (stagedForAddition.isEmpty()) {
+            fileOfAddStage.delete();
+        } else {
+            Codec.ID_MAP.write(fileOfAddStage, stagedForAddition);
+        }
+        if (stagedForRemoval.isEmpty()) {
+            fileOfRemoveStage.delete();
+        } else {
+            Codec.ID_MAP.write(fileOfRemoveStage, stagedForRemoval);
+        }
+    }
+
     /** Clear the staging area. */
     private void clearStagingArea() {
         fileOfAddStage.delete();
@@ -385,33 +754,123 @@ class Repository {
      * @param commit the commit where file exists
      * */
     private void checkoutCommit(Commit commit, String fileName) {
-        Blob target = commit.searchFor(fileName);
+        String target = commit.searchFor(fileName);
         if (target == null) {
             Utils.exitWithError("File does not exist in that commit.");
         }
         File dest = Utils.join(CWD, fileName);
-        Utils.writeContents(dest, target.getRef());
+        dest.getParentFile().mkdirs();
+        Blob.copyTo(target, dest);
+        index().record(fileName, dest, target);
+    }
+
+    /** Print the ids of the commits found by find, one per line. */
+    private void printFound(Collection<String> uids) {
+        if (uids.isEmpty()) {
+            Utils.exitWithError("Found no commit with that message.");
+        }
+        StringBuilder out = new StringBuilder();
+        for (String uid : uids) {
+            out.append(uid).append('\n');
+        }
+        System.out.print(out);
     }
 
-    /** Display log info of certain commit. */
-    private void printLogInfo(Commit pointer) {
-        System.out.println("===");
-        System.out.println("commit " + pointer.getUID());
-        System.out.println("Date: " + pointer.getTimestamp());
-        System.out.println(pointer.getLog());
-        System.out.print("\n");
+    /** Print a status section with the given TITLE listing LINES. */
+    private void printSection(String title, Collection<String> lines) {
+        System.out.println("=== " + title + " ===");
+        for (String line : lines) {
+            System.out.println(line);
+        }
+        System.out.println();
     }
 
-    /** Check for untracked files. */
-    private ArrayList<File> untrackedFiles(Commit branchHead) {
-        ArrayList<File> untrackedFiles = new ArrayList<>();
-        if (fileOfAddStage.exists()) {
-            stagedForAddition = Utils.readObject(fileOfAddStage, stagedForAddition.getClass());
+    /** Return the files staged for addition that are renames of files
+     * staged for removal, or copies of files of HEAD, each as "OLD -> NEW",
+     * with " (copy)" after copies. */
+    private List<String> stagedRenames() {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (String name : stagedForRemoval.keySet()) {
+            changes.put(name, new String[] {HEAD.searchFor(name), null});
+        }
+        for (Map.Entry<String, String> e : stagedForAddition.entrySet()) {
+            changes.put(e.getKey(), new String[] {HEAD.searchFor(e.getKey()), e.getValue()});
+        }
+        List<String> lines = new ArrayList<>();
+        for (Renames.Pair pair : Renames.detect(changes, HEAD.getTreeOfBlobs(),
+                name -> Blob.contents(stagedForAddition.get(name)))) {
+            lines.add(pair.from + " -> " + pair.to + (pair.copy ? " (copy)" : ""));
+        }
+        return lines;
+    }
+
+    /** Return the tracked or staged files whose working copies differ from
+     * the version that would be committed, each marked "(modified)" or
+     * "(deleted)". Files are hashed in parallel, and only those whose size or
+     * modification time changed since they were last hashed are read. */
+    private TreeSet<String> unstagedModifications() {
+        TreeMap<String, String> expected = new TreeMap<>(HEAD.getTreeOfBlobs());
+        expected.keySet().removeAll(stagedForRemoval.keySet());
+        expected.putAll(stagedForAddition);
+        TreeMap<String, String> actual = WorkTree.hash(expected.keySet(), index(), false);
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            String id = actual.get(e.getKey());
+            if (id == null) {
+                result.add(e.getKey() + " (deleted)");
+            } else if (!id.equals(e.getValue())) {
+                result.add(e.getKey() + " (modified)");
+            }
         }
-        for (File f : CWD.listFiles()) {
-            if (f.isDirectory() ||
-            stagedForAddition.containsKey(f.getName()) ||
-            branchHead.getTreeOfBlobs().containsKey(f.getName())) {
+        return result;
+    }
+
+    /** Print OUT and empty it if it holds a chunk's worth of output, so
+     * that long output is written in large pieces without being held in
+     * memory all at once. */
+    private void flushIfFull(StringBuilder out) {
+        if (out.length() >= Utils.CHUNK_SIZE) {
+            System.out.print(out);
+            out.setLength(0);
+        }
+    }
+
+    /** Append the log info of certain commit to OUT. */
+    private void appendLogInfo(StringBuilder out, Commit pointer) {
+        out.append("===\n");
+        out.append("commit ").append(pointer.getUID()).append('\n');
+        if (pointer.getSecondParentID() != null) {
+            out.append("Merge: ").append(pointer.getParentID(), 0, 7)
+                    .append(' ').append(pointer.getSecondParentID(), 0, 7).append('\n');
+        }
+        out.append("Date: ").append(pointer.getTimestamp()).append('\n');
+        out.append(pointer.getLog()).append("\n\n");
+    }
+
+    /** Insert into OUT, before the blank line ending the log info of
+     * COMMIT, a line for each file it renamed or copied from its first
+     * parent. Only the changed files are compared, and only when some were
+     * added. */
+    private void appendRenames(StringBuilder out, Commit commit) {
+        TreeMap<String, String[]> changes = Tree.diff(
+                Commit.load(commit.getParentID()).getTreeID(), commit.getTreeID());
+        out.setLength(out.length() - 1);
+        for (Renames.Pair pair : Renames.detect(changes, null,
+                name -> Blob.contents(changes.get(name)[1]))) {
+            out.append(' ').append(pair).append('\n');
+        }
+        out.append('\n');
+    }
+
+    /** Check for untracked files: files that are neither staged for addition
+     * nor tracked, counting files staged for removal as untracked. */
+    private TreeSet<String> untrackedFiles(Commit branchHead) {
+        TreeSet<String> untrackedFiles = new TreeSet<>();
+        readStagingArea();
+        for (String f : WorkTree.files()) {
+            if (stagedForAddition.containsKey(f) ||
+            (branchHead.getTreeOfBlobs().containsKey(f)
+                    && !stagedForRemoval.containsKey(f))) {
                 continue;
             }
             untrackedFiles.add(f);
@@ -419,14 +878,196 @@ class Repository {
         return untrackedFiles;
     }
 
-    /** Find split point */
-    private void splitPoint(String branchName) {
-        BRANCHES = Utils.readObject(branches, BRANCHES.getClass());
-        Commit branchHead = BRANCHES.get(branchName);
-        if (branchHead.getParent() == HEAD) {
-            SPLITPOINTS = Utils.readObject(splitPoints, SPLITPOINTS.getClass());
-            SPLITPOINTS.add(HEAD);
-            Utils.writeObject(splitPoints, SPLITPOINTS);
+    /** Mark every object that can still be reached: the commits of every
+     * branch and their ancestors, their trees and blobs, and the blobs
+     * staged for addition. Each object is visited at most once, and not at
+     * all below a commit with a reachability bitmap.
+     * @return the marks of the reachable objects
+     * */
+    private ObjectStore.Marks reachable() {
+        readStagingArea();
+        ObjectStore.Marks marks = Bitmaps.reachable(BRANCHES.values());
+        for (String blob : stagedForAddition.values()) {
+            Blob.mark(blob, marks);
+        }
+        return marks;
+    }
+
+    /** Return the objects reachable from the commits WANTS but not from
+     * the commits HAVES, all of which must be stored. With reachability
+     * bitmaps this is an and-not of the objects each side reaches;
+     * otherwise the new commits are found in the commit graph and their
+     * new trees and blobs by comparing each with its first parent. */
+    private Set<String> missingObjects(List<String> wants, List<String> haves) {
+        if (Bitmaps.available()) {
+            return new LinkedHashSet<>(
+                    Bitmaps.reachable(wants).minus(Bitmaps.reachable(haves)));
+        }
+        return objectsOf(CommitGraph.get().missing(wants, haves));
+    }
+
+    /** Return the COMMITS followed by the trees and blobs each of them
+     * adds to its first parent, which together are every object of the
+     * commits that a repository holding their other ancestors lacks. */
+    private Set<String> objectsOf(List<String> commits) {
+        LinkedHashSet<String> objects = new LinkedHashSet<>(commits);
+        for (String uid : commits) {
+            Commit commit = Commit.load(uid);
+            String parent = commit.getParentID();
+            Tree.newObjects(parent == null ? null : Commit.load(parent).getTreeID(),
+                    commit.getTreeID(), objects);
+        }
+        return objects;
+    }
+
+    /** Pair each version of a file with the version that replaced it, so
+     * that gc can store the older one as a delta against the newer one.
+     * Commits are walked newest first from every branch, and a blob is
+     * only paired with one seen earlier, so the pairs never form a cycle.
+     * @return a map from blob ids to the ids of their delta bases
+     */
+    private HashMap<String, String> deltaBases() {
+        HashMap<String, String> bases = new HashMap<>();
+        HashMap<String, Integer> rank = new HashMap<>();
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<Commit> queue = new ArrayDeque<>();
+        for (String uid : BRANCHES.values()) {
+            if (visited.add(uid)) {
+                queue.add(Commit.load(uid));
+            }
+        }
+        while (!queue.isEmpty()) {
+            Commit commit = queue.remove();
+            for (String parentID : commit.getParentIDs()) {
+                Commit parent = Commit.load(parentID);
+                for (String[] change
+                        : Tree.diff(parent.getTreeID(), commit.getTreeID()).values()) {
+                    String older = change[0];
+                    String newer = change[1];
+                    if (newer != null) {
+                        rank.putIfAbsent(newer, rank.size());
+                    }
+                    if (older == null) {
+                        continue;
+                    }
+                    rank.putIfAbsent(older, rank.size());
+                    if (newer != null && rank.get(newer) < rank.get(older)) {
+                        bases.putIfAbsent(older, newer);
+                    }
+                }
+                if (visited.add(parentID)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** Return the commit whose UID is or starts with ID, on any branch.
+     * Exits with an error if there is no such commit or more than one. */
+    private Commit findCommit(String id) {
+        List<String> matches = ObjectStore.findPrefix(id, ObjectStore.COMMIT);
+        if (matches.isEmpty()) {
+            Utils.exitWithError("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            Utils.exitWithError("Ambiguous commit id.");
+        }
+        return Commit.load(matches.get(0));
+    }
+
+    /** Point BRANCH at the commit UID, or delete it if UID is null. The
+     * change is logged, and made durable, before the branches file is
+     * replaced, so that it survives a crash at any point.
+     * @param message why the branch moved, for the ref log
+     * */
+    private void updateBranch(String branch, String uid, String message) {
+        RefLog.append(branch, BRANCHES.get(branch), uid, message);
+        if (uid == null) {
+            BRANCHES.remove(branch);
+        } else {
+            BRANCHES.put(branch, uid);
+        }
+        Codec.ID_MAP.write(branches, BRANCHES);
+    }
+
+    /** Check out the files of COMMIT, delete the tracked files it does not
+     * track, and point the current branch at it for the reason MESSAGE. */
+    private void moveTo(Commit commit, String message) {
+        switchTo(commit);
+        HEAD = commit;
+        updateBranch(currentBranch, HEAD.getUID(), message);
+    }
+
+    /** Make the working files those of TARGET, touching only what differs
+     * from HEAD: files whose blobs differ between the two trees, files
+     * staged for addition, and tracked files whose working copies were
+     * changed or deleted. Unchanged subtrees are skipped by Tree.diff, and
+     * the other working files are only checked against the index. The
+     * staging area is cleared, as its files are now those of TARGET.
+     * @param target the commit to be checked out
+     * */
+    private void switchTo(Commit target) {
+        readStagingArea();
+        TreeMap<String, String> writes = new TreeMap<>();
+        TreeSet<String> deletes = new TreeSet<>();
+        for (Map.Entry<String, String[]> e
+                : Tree.diff(HEAD.getTreeID(), target.getTreeID()).entrySet()) {
+            if (e.getValue()[1] == null) {
+                deletes.add(e.getKey());
+            } else {
+                writes.put(e.getKey(), e.getValue()[1]);
+            }
+        }
+        for (String name : stagedForAddition.keySet()) {
+            String id = target.searchFor(name);
+            if (id == null) {
+                deletes.add(name);
+            } else {
+                writes.put(name, id);
+            }
+        }
+        TreeSet<String> unchanged = new TreeSet<>(target.getTreeOfBlobs().keySet());
+        unchanged.removeAll(writes.keySet());
+        TreeMap<String, String> working = WorkTree.hash(unchanged, index(), false);
+        for (String name : unchanged) {
+            if (!target.searchFor(name).equals(working.get(name))) {
+                writes.put(name, target.searchFor(name));
+            }
+        }
+        for (String name : deletes) {
+            WorkTree.delete(name);
+            index().remove(name);
+        }
+        WorkTree.write(writes, index());
+        index().write();
+        clearStagingArea();
+        stagedForAddition = new HashMap<>();
+        stagedForRemoval = new HashMap<>();
+    }
+
+    /** Return the contents of the version ID of the file NAME, read from the
+     * object store if STORED and from the working directory otherwise. */
+    private byte[] contentsOf(String name, String id, boolean stored) {
+        return stored ? Blob.contents(id) : Utils.readContents(WorkTree.file(name));
+    }
+
+    /** Return the contents of the file NAME in COMMIT, or nothing if it
+     * does not track that file, for one side of a merge conflict. */
+    private byte[] conflictSide(Commit commit, String name) {
+        String id = commit.searchFor(name);
+        return id == null ? new byte[0] : Blob.contents(id);
+    }
+
+    /** Find split point: the latest common ancestor of HEAD and the head of
+     * the given branch, found by walking both histories back only as far
+     * as they diverge. Exits with an error if the histories share no
+     * commit, as a branch fetched from an unrelated repository may not. */
+    private Commit splitPoint(String branchName) {
+        String branchHead = BRANCHES.get(branchName);
+        String base = CommitGraph.get().mergeBase(HEAD.getUID(), branchHead);
+        if (base == null) {
+            Utils.exitWithError("Given branch shares no history with the current branch.");
         }
+        return Commit.load(base);
     }
 }
@@ -0,0 +1,185 @@
+package gitlet;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The directories of a commit, stored as tree objects.
+ *  A tree object lists one directory: it maps the name of each file in it
+ *  to the id of its blob, and the name of each subdirectory, followed by
+ *  '/', to the id of the subdirectory's tree. A tree is named by the SHA-1
+ *  of its contents, so two directories with the same contents are one
+ *  object, and a commit names its whole snapshot with the id of its root
+ *  tree.
+ *
+ *  A commit that changes a few files therefore writes new trees only for
+ *  the directories on the paths to them, and two snapshots can be compared
+ *  by walking down only into subdirectories whose ids differ.
+ *
+ *  @author Sueray
+ */
+class Tree {
+
+    /** Return the entries of the tree ID, which must not be changed. */
+    @SuppressWarnings("unchecked")
+    static TreeMap<String, String> read(String id) {
+        TreeMap<String, String> entries = ObjectCache.SHARED.get(id, TreeMap.class);
+        if (entries == null) {
+            byte[] stored = ObjectStore.get(id, ObjectStore.TREE);
+            if (stored == null) {
+                throw Utils.error("Missing tree %s.", id);
+            }
+            entries = Codec.TREE.decode(stored);
+            ObjectCache.SHARED.put(id, entries, ObjectCache.sizeOf(entries));
+        }
+        return entries;
+    }
+
+    /** Store the tree with the given ENTRIES.
+     * @return its id
+     */
+    static String save(TreeMap<String, String> entries) {
+        byte[] contents = Codec.TREE.encode(entries);
+        String id = Utils.sha1(contents);
+        ObjectStore.put(ObjectStore.TREE, id, contents);
+        ObjectCache.SHARED.put(id, entries, ObjectCache.sizeOf(entries));
+        return id;
+    }
+
+    /** Store the trees of the snapshot FILES, which maps paths to blob ids.
+     * @return the id of the root tree
+     */
+    static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Store the trees of the snapshot ROOT with CHANGES made to it. Only
+     *  the trees of directories holding a changed path are rewritten, and a
+     *  directory left empty is dropped.
+     * @param root the id of the root tree, or null for an empty snapshot
+     * @param changes maps paths to their new blob ids, or to null for paths
+     *                to be removed
+     * @return the id of the new root tree
+     */
+    static String update(String root, Map<String, String> changes) {
+        TreeMap<String, String> entries = root == null ? new TreeMap<>()
+                : new TreeMap<>(read(root));
+        TreeMap<String, TreeMap<String, String>> bySubdir = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (e.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, e.getValue());
+                }
+            } else {
+                bySubdir.computeIfAbsent(path.substring(0, slash + 1), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e : bySubdir.entrySet()) {
+            String subdir = update(entries.get(e.getKey()), e.getValue());
+            if (read(subdir).isEmpty()) {
+                entries.remove(e.getKey());
+            } else {
+                entries.put(e.getKey(), subdir);
+            }
+        }
+        return save(entries);
+    }
+
+    /** Return the snapshot whose root tree is ROOT, mapping the path of
+     *  every file to its blob id. */
+    static TreeMap<String, String> flatten(String root) {
+        TreeMap<String, String> files = new TreeMap<>();
+        flatten(root, "", files);
+        return files;
+    }
+
+    /** Return the paths whose blobs differ between the snapshots whose root
+     *  trees are OLDROOT and NEWROOT, each mapped to its old and new blob
+     *  ids, either of which is null where the path is absent. Directories
+     *  whose trees are the same in both are skipped without being read. */
+    static TreeMap<String, String[]> diff(String oldRoot, String newRoot) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        diff(oldRoot, newRoot, "", changes);
+        return changes;
+    }
+
+    /** Mark in MARKS the tree ROOT and every tree and blob under it. A
+     *  tree marked before, such as a directory shared with another commit,
+     *  is not read again. */
+    static void mark(String root, ObjectStore.Marks marks) {
+        if (!marks.mark(root)) {
+            return;
+        }
+        for (Map.Entry<String, String> e : read(root).entrySet()) {
+            if (isTree(e.getKey())) {
+                mark(e.getValue(), marks);
+            } else {
+                Blob.mark(e.getValue(), marks);
+            }
+        }
+    }
+
+    /** Add to OBJECTS the tree NEWROOT and every tree and blob under it
+     *  that is not in the tree OLDROOT, which may be null. Directories
+     *  whose trees are the same in both are skipped without being read. */
+    static void newObjects(String oldRoot, String newRoot, Collection<String> objects) {
+        if (newRoot.equals(oldRoot) || !objects.add(newRoot)) {
+            return;
+        }
+        TreeMap<String, String> older = oldRoot == null ? new TreeMap<>() : read(oldRoot);
+        for (Map.Entry<String, String> e : read(newRoot).entrySet()) {
+            String old = older.get(e.getKey());
+            if (isTree(e.getKey())) {
+                newObjects(old, e.getValue(), objects);
+            } else if (!e.getValue().equals(old)) {
+                Blob.newObjects(old, e.getValue(), objects);
+            }
+        }
+    }
+
+    /** Add the files of the tree ID to FILES, their paths preceded by
+     *  PREFIX. */
+    private static void flatten(String id, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, String> e : read(id).entrySet()) {
+            if (isTree(e.getKey())) {
+                flatten(e.getValue(), prefix + e.getKey(), files);
+            } else {
+                files.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Add the differences between the trees OLDID and NEWID, either of
+     *  which may be null for an absent directory, to CHANGES, their paths
+     *  preceded by PREFIX. */
+    private static void diff(String oldID, String newID, String prefix,
+                             Map<String, String[]> changes) {
+        if (oldID != null && oldID.equals(newID)) {
+            return;
+        }
+        TreeMap<String, String> older = oldID == null ? new TreeMap<>() : read(oldID);
+        TreeMap<String, String> newer = newID == null ? new TreeMap<>() : read(newID);
+        TreeSet<String> names = new TreeSet<>(older.keySet());
+        names.addAll(newer.keySet());
+        for (String name : names) {
+            String a = older.get(name);
+            String b = newer.get(name);
+            if (isTree(name)) {
+                diff(a, b, prefix + name, changes);
+            } else if (a == null || !a.equals(b)) {
+                changes.put(prefix + name, new String[] {a, b});
+            }
+        }
+    }
+
+    /** Return true iff NAME, an entry of a tree, names a subdirectory. */
+    private static boolean isTree(String name) {
+        return name.endsWith("/");
+    }
+}
@@ -8,15 +8,25 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /** Assorted utilities.
@@ -31,30 +41,25 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** The hexadecimal digits, indexed by their values. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return toHex(md.digest());
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -63,6 +68,37 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read in fixed-size
+     *  chunks so that memory use does not depend on the size of FILE. */
+    static String sha1(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns a new SHA-1 message digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns DATA as a hexadecimal numeral. */
+    static String toHex(byte[] data) {
+        return toHex(data, 0, data.length);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -90,6 +126,9 @@ class Utils {
 
     /* READING AND WRITING FILE CONTENTS */
 
+    /** The size of the buffer used to stream large files. */
+    static final int CHUNK_SIZE = 1 << 16;
+
     /** Return the entire contents of FILE as a byte array.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
@@ -136,6 +175,17 @@ class Utils {
         }
     }
 
+    /** Return a channel writing FILE from its start, creating it or
+     *  discarding its contents as needed.  Throws IllegalArgumentException
+     *  if FILE is a directory. */
+    static FileChannel openForWrite(File file) throws IOException {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -152,9 +202,156 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE, replacing it atomically. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeAtomically(file, serialize(obj));
+    }
+
+    /** Write the concatenation of CONTENTS to FILE as writeContents does,
+     *  but by writing a temporary file beside it and renaming that over
+     *  FILE, so that a crash leaves either the old or the new contents and
+     *  never a mixture.  Nothing is forced to disk; see sync.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeAtomically(File file, Object... contents) {
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Force the contents of FILES, and the directories holding them, to
+     *  disk, so that they survive a crash.  Each file and each directory
+     *  is synced once however many of FILES it stands for.  Directories
+     *  that cannot be synced on this platform are skipped.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void sync(Collection<File> files) {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : new LinkedHashSet<>(files)) {
+            if (file.isDirectory()) {
+                dirs.add(file);
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            dirs.add(file.getAbsoluteFile().getParentFile());
+        }
+        for (File dir : dirs) {
+            try (FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Return the LENGTH bytes of FILE that start at OFFSET, reading them
+     *  with a single seek.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static byte[] readRange(File file, long offset, int length) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] result = new byte[length];
+            in.seek(offset);
+            in.readFully(result);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* COMPRESSION */
+
+    /** Return CONTENTS compressed with deflate. */
+    static byte[] compress(byte[] contents) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(contents);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            result.write(buffer, 0, n);
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /** Return the SIZE bytes obtained by inflating the LEN bytes of DATA
+     *  starting at OFF. */
+    static byte[] decompress(byte[] data, int off, int len, int size) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, off, len);
+        byte[] result = new byte[size];
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                n += inflater.inflate(result, n, size - n);
+            }
+            if (n != size) {
+                throw error("Corrupt compressed object.");
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw error("Corrupt compressed object.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /* BINARY ENCODING */
+
+    /** Append VALUE to OUT as a varint: seven bits per byte, low bits
+     *  first, with the high bit set on every byte but the last. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Return the varint that starts at POS[0] in DATA, advancing POS[0]
+     *  past it. */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /** Return the 20 bytes denoted by the 40-digit hexadecimal ID. */
+    static byte[] fromHex(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Return the LEN bytes of DATA starting at OFF as a hexadecimal
+     *  numeral. */
+    static String toHex(byte[] data, int off, int len) {
+        char[] result = new char[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = data[off + i] & 0xFF;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xF];
+        }
+        return new String(result);
     }
 
     /* DIRECTORIES */
@@ -237,14 +434,28 @@ class Utils {
         System.out.println();
     }
 
+    /** Return the command that runs gitlet with the given ARGS in a new
+     *  JVM. The entries of the class path are made absolute, so the
+     *  command may be run in any directory. */
+    static List<String> gitletCommand(String... args) {
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        List<String> command = new ArrayList<>(List.of(
+                join(System.getProperty("java.home"), "bin", "java").getPath(),
+                "-cp", String.join(File.pathSeparator, classPath), Main.class.getName()));
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
     /**
-     * Prints out MESSAGE and exits with error code 0.
+     * Ends the current command with MESSAGE, which Main prints. The command
+     * is ended by an exception rather than by exiting, so that a Daemon can
+     * go on to run the next one.
      * @param message message to print
      */
     static void exitWithError(String message) {
-        if (message != null && !message.equals("")) {
-            System.out.println(message);
-        }
-        System.exit(0);
+        throw new GitletException(message);
     }
 }
@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/** The files of the working directory, including those in subdirectories.
+ *  A working file is named by its path relative to the working directory,
+ *  with '/' between directory names. Both listing the tree and hashing its
+ *  files are spread over a ForkJoinPool; results are gathered into sorted
+ *  collections, so they do not depend on the order the work finished in.
+ *  Files being checked out are written by a fixed number of threads.
+ *
+ *  @author Sueray
+ */
+class WorkTree {
+
+    /** The most files written at once by write. Writing mostly waits on the
+     *  disk, so this is more than the number of processors. */
+    private static final int WRITERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Return the paths of all plain files in the working directory and its
+     *  subdirectories, except those in .gitlet. */
+    static TreeSet<String> files() {
+        return new TreeSet<>(ForkJoinPool.commonPool().invoke(
+                new Walk(Repository.CWD, "")));
+    }
+
+    /** Return the file with the given PATH. */
+    static File file(String path) {
+        return Utils.join(Repository.CWD, path);
+    }
+
+    /** Hash the working files named by PATHS in parallel, using INDEX to
+     *  skip files unchanged since they were last hashed.
+     * @param store whether to save the contents of the files as blobs
+     * @return a map from the paths of the files that exist to their blob ids
+     */
+    static TreeMap<String, String> hash(Collection<String> paths, Index index,
+                                        boolean store) {
+        ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<>();
+        paths.parallelStream().forEach(path -> {
+            File file = file(path);
+            if (file.isFile()) {
+                ids.put(path, store ? index.snapShot(path, file) : index.hash(path, file));
+            }
+        });
+        return new TreeMap<>(ids);
+    }
+
+    /** Replace the working files named by the keys of FILES with the
+     *  contents of the blobs they map to, creating directories as needed,
+     *  and record them in INDEX. At most WRITERS files are written at once,
+     *  which bounds the number of blobs held in memory. */
+    static void write(Map<String, String> files, Index index) {
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                done.add(writers.submit(() -> {
+                    File file = file(e.getKey());
+                    file.getParentFile().mkdirs();
+                    Blob.copyTo(e.getValue(), file);
+                    index.record(e.getKey(), file, e.getValue());
+                }));
+            }
+            for (Future<?> write : done) {
+                write.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp);
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+    /** Delete the working file with the given PATH, along with any
+     *  directories left empty by doing so. */
+    static void delete(String path) {
+        File file = file(path);
+        file.delete();
+        File dir = file.getParentFile();
+        while (!dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Lists one directory, forking a subtask for each subdirectory. */
+    private static class Walk extends RecursiveTask<List<String>> {
+        /** The version of this class, as tasks are serializable. */
+        private static final long serialVersionUID = 1L;
+        /** The directory to list. */
+        private final File dir;
+        /** The path of DIR followed by '/', or "" for the working directory. */
+        private final String prefix;
+
+        Walk(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> result = new ArrayList<>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return result;
+            }
+            Arrays.sort(children);
+            List<Walk> subdirs = new ArrayList<>();
+            for (File child : children) {
+                String name = child.getName();
+                if (child.isDirectory()) {
+                    if (!(prefix.isEmpty() && name.equals(".gitlet"))) {
+                        Walk walk = new Walk(child, prefix + name + "/");
+                        walk.fork();
+                        subdirs.add(walk);
+                    }
+                } else if (child.isFile()) {
+                    result.add(prefix + name);
+                }
+            }
+            for (Walk walk : subdirs) {
+                result.addAll(walk.join());
+            }
+            return result;
+        }
+    }
+}